@@ -0,0 +1,195 @@
+package banking;
+
+import org.sqlite.SQLiteDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static banking.Main.getArgument;
+import static banking.Processor.*;
+
+/**
+ * This program runs a large number of concurrent callers for a
+ * fixed time, each looking up random cards and depositing one
+ * unit to them. In blocking mode every caller is a platform
+ * thread calling the storage methods directly; in async mode the
+ * callers are chains of futures on the async card service. It
+ * prints the operation throughput and exits with status 1 if the
+ * total balance does not match the successful deposits.
+ *
+ * Usage: AsyncThroughputBenchmark -fileName [Database File Name] -callers [Callers] -cards [Cards] -seconds [Duration] -mode [blocking|async] -executor [virtual|fixed]
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+public class AsyncThroughputBenchmark {
+
+    private static final int DEPOSIT_PERCENT = 20;
+
+    /**
+     * Main entry to the program
+     *
+     * @param args Terminal passed-down arguments
+     * @throws Exception If a caller fails
+     */
+    public static void main(String[] args) throws Exception {
+        String fileName = getArgument(args, "-fileName", "async-benchmark.s3db");
+        int callers = Integer.parseInt(getArgument(args, "-callers", "1000"));
+        int cardCount = Integer.parseInt(getArgument(args, "-cards", "1000"));
+        int seconds = Integer.parseInt(getArgument(args, "-seconds", "10"));
+        boolean isAsync = "async".equals(getArgument(args, "-mode", "async"));
+        String executorKind = getArgument(args, "-executor", "virtual");
+
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + fileName);
+
+        boolean isConsistent;
+
+        try (ConnectionPool pool = new ConnectionPool(dataSource, StorageProfile.BALANCED,
+                Runtime.getRuntime().availableProcessors() * 2)) {
+            if (!SchemaMigrator.migrate(pool)) {
+                System.exit(-1);
+            }
+
+            CardIssuer issuer = new CardIssuer(pool);
+            long[] cards = issuer.issueCards(cardCount).mapToLong(Card::getCardNumber).toArray();
+            long startTotal = totalBalance(pool, cards);
+
+            LongAdder lookups = new LongAdder();
+            LongAdder deposits = new LongAdder();
+            LongAdder errors = new LongAdder();
+            long start = System.nanoTime();
+            long end = start + seconds * 1_000_000_000L;
+            String summary;
+
+            if (isAsync) {
+                try (ShardedStore store = new ShardedStore(pool);
+                     AsyncCardService service = new AsyncCardService(store,
+                             AsyncCardService.newExecutor(executorKind, pool.getMaxSize()))) {
+                    List<CompletableFuture<Void>> done = new ArrayList<>(callers);
+
+                    for (int c = 0; c < callers; c++) {
+                        CompletableFuture<Void> caller = new CompletableFuture<>();
+                        done.add(caller);
+                        runAsyncCaller(service, cards, end, lookups, deposits, errors, caller);
+                    }
+
+                    CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+                    summary = "rejected=" + service.getRejectedCount() + " " + pool.getStatistics();
+                }
+            } else {
+                try (ShardedStore store = new ShardedStore(pool)) {
+                    ExecutorService executor = Executors.newFixedThreadPool(callers);
+                    List<Future<?>> futures = new ArrayList<>(callers);
+
+                    for (int c = 0; c < callers; c++) {
+                        futures.add(executor.submit(() -> {
+                            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                            while (System.nanoTime() < end) {
+                                long card = cards[random.nextInt(cards.length)];
+
+                                if (random.nextInt(100) < DEPOSIT_PERCENT) {
+                                    count(store.deposit(card, 1).join().isPresent(), deposits, errors);
+                                } else {
+                                    count(selectCardFromTable(pool, card) != null, lookups, errors);
+                                }
+                            }
+                        }));
+                    }
+
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+                    executor.shutdown();
+                    summary = pool.getStatistics();
+                }
+            }
+
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            long endTotal = totalBalance(pool, cards);
+            isConsistent = endTotal == startTotal + deposits.sum();
+
+            System.out.printf("mode=%s executor=%s callers=%d ops/s=%.0f lookups=%d deposits=%d errors=%d%n",
+                    isAsync ? "async" : "blocking", isAsync ? executorKind : "platform", callers,
+                    (lookups.sum() + deposits.sum()) / elapsed, lookups.sum(), deposits.sum(), errors.sum());
+            System.out.println(summary);
+            System.out.printf("expected total=%d actual total=%d%n", startTotal + deposits.sum(), endTotal);
+        }
+
+        System.exit(isConsistent ? 0 : 1);
+    }
+
+    /**
+     * Starts the next operation of an async caller once the previous one
+     * completes, until the end of the run
+     *
+     * @param service Async card service
+     * @param cards Card numbers to operate on
+     * @param end Value of System.nanoTime() at which the caller stops
+     * @param lookups Counter of successful lookups
+     * @param deposits Counter of successful deposits
+     * @param errors Counter of failed or rejected operations
+     * @param done Future completed when the caller stops
+     */
+    private static void runAsyncCaller(AsyncCardService service, long[] cards, long end, LongAdder lookups,
+                                       LongAdder deposits, LongAdder errors, CompletableFuture<Void> done) {
+        if (System.nanoTime() >= end) {
+            done.complete(null);
+            return;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long card = cards[random.nextInt(cards.length)];
+        CompletableFuture<Boolean> operation = random.nextInt(100) < DEPOSIT_PERCENT
+                ? service.deposit(card, 1).thenApply(balance -> {
+                    count(balance.isPresent(), deposits, errors);
+                    return true;
+                })
+                : service.find(card).thenApply(found -> {
+                    count(found != null, lookups, errors);
+                    return true;
+                });
+
+        operation.whenCompleteAsync((isCounted, error) -> {
+            if (error != null) {
+                errors.increment();
+            }
+            runAsyncCaller(service, cards, end, lookups, deposits, errors, done);
+        });
+    }
+
+    /**
+     * Counts the outcome of an operation
+     *
+     * @param isSuccess Indicates whether the operation succeeded
+     * @param successes Counter of successful operations
+     * @param errors Counter of failed operations
+     */
+    private static void count(boolean isSuccess, LongAdder successes, LongAdder errors) {
+        (isSuccess ? successes : errors).increment();
+    }
+
+    /**
+     * Adds up the balances of the specified cards
+     *
+     * @param pool Database connection pool
+     * @param cards Card numbers
+     * @return A long
+     */
+    private static long totalBalance(ConnectionPool pool, long[] cards) {
+        long total = 0;
+
+        for (long card : cards) {
+            total = Money.add(total, selectCardFromTable(pool, card).getBalance());
+        }
+
+        return total;
+    }
+}
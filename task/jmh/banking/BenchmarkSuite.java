@@ -0,0 +1,45 @@
+package banking;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static banking.Main.getArgument;
+
+/**
+ * This program runs the card, Luhn and storage benchmarks and
+ * writes their results as JSON, so that results of different
+ * releases can be compared by a script. The database sizes of
+ * the storage benchmarks can be narrowed to shorten a run.
+ *
+ * Usage: BenchmarkSuite -result [JSON File Name] -cards [Comma-Separated Database Sizes] -include [Benchmark Pattern]
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+public class BenchmarkSuite {
+
+    /**
+     * Main entry to the program
+     *
+     * @param args Terminal passed-down arguments
+     * @throws RunnerException If a benchmark fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        String cards = getArgument(args, "-cards", null);
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(getArgument(args, "-include", "banking\\.(Card|Luhn|Processor)Benchmark"))
+                .resultFormat(ResultFormatType.JSON)
+                .result(getArgument(args, "-result", "jmh-results.json"))
+                .shouldFailOnError(true);
+
+        if (cards != null) {
+            options.param("cards", cards.split(","));
+        }
+
+        new Runner(options.build()).run();
+    }
+}
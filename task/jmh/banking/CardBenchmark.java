@@ -0,0 +1,91 @@
+package banking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This program measures the parts of a card that are computed
+ * without the database: the check digit, its validation in
+ * both card number forms, and the PIN.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardBenchmark {
+
+    private static final int SIZE = 1_024;
+
+    private long[] payloads;
+    private long[] cardNumbers;
+    private String[] formattedNumbers;
+    private int index;
+
+    /**
+     * Fills the benchmark with card numbers in the bank's format
+     */
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        payloads = new long[SIZE];
+        cardNumbers = new long[SIZE];
+        formattedNumbers = new String[SIZE];
+
+        for (int i = 0; i < SIZE; i++) {
+            payloads[i] = 400_000_000_000_000L + random.nextInt(AccountAllocator.ACCOUNT_SPACE);
+            cardNumbers[i] = payloads[i] * 10 + Card.generateCheckSumDigit(payloads[i]);
+            formattedNumbers[i] = Card.formatCardNumber(cardNumbers[i]);
+        }
+    }
+
+    /**
+     * Moves on to the next prepared card number
+     *
+     * @return Index of the card number
+     */
+    private int next() {
+        index = (index + 1) & (SIZE - 1);
+        return index;
+    }
+
+    @Benchmark
+    public int generateCheckSumDigit() {
+        return Card.generateCheckSumDigit(payloads[next()]);
+    }
+
+    @Benchmark
+    public boolean isCheckSumDigitValid() {
+        return Card.isCheckSumDigitValid(cardNumbers[next()]);
+    }
+
+    @Benchmark
+    public boolean isCheckSumDigitValidFormatted() {
+        return Card.isCheckSumDigitValid(formattedNumbers[next()]);
+    }
+
+    @Benchmark
+    public long parseCardNumber() {
+        return Card.parseCardNumber(formattedNumbers[next()]);
+    }
+
+    @Benchmark
+    public String generatePIN() {
+        return Card.generatePIN();
+    }
+}
@@ -0,0 +1,355 @@
+package banking;
+
+import org.sqlite.SQLiteDataSource;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static banking.Main.getArgument;
+import static banking.Processor.*;
+
+/**
+ * This program simulates concurrent customers using the bank
+ * for a fixed time. Every customer owns a card and repeatedly
+ * picks an operation from a weighted mix, carries it out the
+ * way the menus do and waits for a think time. It prints the
+ * throughput and the latency percentiles of each operation,
+ * and exits with status 1 if the money in the database does
+ * not add up: transfers must leave the total unchanged, so
+ * the final total must equal the starting total plus the
+ * deposits minus the balances of the closed accounts.
+ *
+ * Usage: CustomerLoadGenerator -fileName [Database File Name] -customers [Customers] -seconds [Duration] -thinkMillis [Think Time] -mix [create=5,login=20,balance=30,deposit=20,transfer=20,close=5]
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+public class CustomerLoadGenerator {
+
+    /**
+     * Operations a customer can carry out
+     */
+    enum Operation {
+        CREATE,
+        LOGIN,
+        BALANCE,
+        DEPOSIT,
+        TRANSFER,
+        CLOSE
+    }
+
+    private static final String DEFAULT_MIX = "create=5,login=20,balance=30,deposit=20,transfer=20,close=5";
+    private static final String TOTAL_SQL = "SELECT coalesce(sum(balance), 0) FROM card;";
+    private static final int MAX_AMOUNT = 100;
+
+    private final ConnectionPool pool;
+    private final CardIssuer issuer;
+    private final WriteQueue writer;
+    private final Operation[] mix;
+    private final long thinkNanos;
+    private final AtomicLongArray cards;
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final LongAdder deposited = new LongAdder();
+    private final LongAdder closedBalances = new LongAdder();
+
+    /**
+     * Custom constructor
+     *
+     * @param pool Database connection pool
+     * @param writer Queue of balance-changing operations
+     * @param customers Number of customers
+     * @param mix Operation weights, e.g. 'create=5,login=20'
+     * @param thinkMillis Average pause of a customer between operations
+     */
+    CustomerLoadGenerator(ConnectionPool pool, WriteQueue writer, int customers, String mix, long thinkMillis) {
+        this.pool = pool;
+        this.writer = writer;
+        this.issuer = new CardIssuer(pool, new AccountAllocator(pool), writer);
+        this.mix = parseMix(mix);
+        this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+        this.cards = new AtomicLongArray(customers);
+
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * Main entry to the program
+     *
+     * @param args Terminal passed-down arguments
+     * @throws Exception If a customer fails
+     */
+    public static void main(String[] args) throws Exception {
+        String fileName = getArgument(args, "-fileName", "load-test.s3db");
+        int customers = Integer.parseInt(getArgument(args, "-customers", "1000"));
+        int seconds = Integer.parseInt(getArgument(args, "-seconds", "30"));
+        long thinkMillis = Long.parseLong(getArgument(args, "-thinkMillis", "10"));
+        String mix = getArgument(args, "-mix", DEFAULT_MIX);
+        StorageProfile profile = StorageProfile.fromName(getArgument(args, "-profile",
+                StorageProfile.BALANCED.toString()));
+
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + fileName);
+
+        boolean isConserved;
+
+        try (ConnectionPool pool = new ConnectionPool(dataSource, profile,
+                Runtime.getRuntime().availableProcessors() * 2)) {
+            if (!SchemaMigrator.migrate(pool)) {
+                System.exit(-1);
+            }
+
+            long startTotal = totalBalance(pool);
+            CustomerLoadGenerator generator;
+            double elapsed;
+
+            try (WriteQueue writer = new WriteQueue(pool)) {
+                generator = new CustomerLoadGenerator(pool, writer, customers, mix, thinkMillis);
+                elapsed = generator.run(seconds);
+            }
+
+            long expectedTotal = startTotal + generator.deposited.sum() - generator.closedBalances.sum();
+            long endTotal = totalBalance(pool);
+            isConserved = endTotal == expectedTotal;
+
+            generator.printReport(customers, elapsed);
+            System.out.println(pool.getStatistics());
+            System.out.printf("expected total=%d actual total=%d%n", expectedTotal, endTotal);
+        }
+
+        System.exit(isConserved ? 0 : 1);
+    }
+
+    /**
+     * Reads an operation mix into a table of operations in which each
+     * operation appears as many times as its weight
+     *
+     * @param mix Operation weights, e.g. 'create=5,login=20'
+     * @return Array of operations
+     */
+    private static Operation[] parseMix(String mix) {
+        List<Operation> table = new ArrayList<>();
+
+        for (String entry : mix.split(",")) {
+            String[] weight = entry.trim().split("=");
+            Operation operation = Operation.valueOf(weight[0].trim().toUpperCase());
+
+            for (int i = Integer.parseInt(weight[1].trim()); i > 0; i--) {
+                table.add(operation);
+            }
+        }
+
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("Operation mix has no weight: " + mix);
+        }
+
+        return table.toArray(new Operation[0]);
+    }
+
+    /**
+     * Runs every customer on its own thread for the specified time
+     *
+     * @param seconds Duration of the run
+     * @return Elapsed time in seconds
+     * @throws Exception If a customer fails
+     */
+    double run(int seconds) throws Exception {
+        ExecutorService executor = VirtualThreads.newExecutor(cards.length());
+        List<Future<?>> futures = new ArrayList<>(cards.length());
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+
+        for (int c = 0; c < cards.length(); c++) {
+            int customer = c;
+            futures.add(executor.submit(() -> runCustomer(customer, end)));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        executor.shutdown();
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /**
+     * Opens an account for a customer and carries out operations from the
+     * mix until the end of the run
+     *
+     * @param customer Index of the customer
+     * @param end Value of System.nanoTime() at which the customer stops
+     */
+    private void runCustomer(int customer, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Card card = timedCreate(customer);
+
+        while (System.nanoTime() < end) {
+            Operation operation = card == null ? Operation.CREATE : mix[random.nextInt(mix.length)];
+            long start = System.nanoTime();
+            boolean isSuccess;
+
+            switch (operation) {
+                case CREATE:
+                    Card newCard = issuer.issueCard();
+                    isSuccess = newCard != null;
+                    if (isSuccess) {
+                        card = newCard;
+                        cards.set(customer, card.getCardNumber());
+                    }
+                    break;
+                case LOGIN:
+                    isSuccess = selectCardFromTable(pool, card.getCardNumber(), card.getPIN()) != null;
+                    break;
+                case BALANCE:
+                    isSuccess = selectCardFromTable(pool, card.getCardNumber()) != null;
+                    break;
+                case DEPOSIT:
+                    int amount = 1 + random.nextInt(MAX_AMOUNT);
+                    isSuccess = writer.deposit(card.getCardNumber(), amount).join().isPresent();
+                    if (isSuccess) {
+                        deposited.add(amount);
+                    }
+                    break;
+                case TRANSFER:
+                    long toNumber = cards.get(random.nextInt(cards.length()));
+                    TransferResult result = writer.transfer(card.getCardNumber(), toNumber,
+                            1 + random.nextInt(MAX_AMOUNT)).join();
+                    isSuccess = result.getStatus() != TransferResult.Status.FAILED;
+                    break;
+                default:
+                    long closingNumber = card.getCardNumber();
+                    OptionalLong balance = writer.submit(pooled -> closeAccount(pooled, closingNumber),
+                            OptionalLong::isPresent, OptionalLong.empty()).join();
+                    isSuccess = balance.isPresent();
+                    if (isSuccess) {
+                        closedBalances.add(balance.getAsLong());
+                        card = null;
+                    }
+                    break;
+            }
+
+            latencies.get(operation).record(System.nanoTime() - start);
+
+            if (!isSuccess) {
+                errors.get(operation).increment();
+            }
+
+            if (thinkNanos > 0) {
+                sleepNanos(random.nextLong(2 * thinkNanos));
+            }
+        }
+    }
+
+    /**
+     * Opens the first account of a customer
+     *
+     * @param customer Index of the customer
+     * @return The new card, null if it could not be created
+     */
+    private Card timedCreate(int customer) {
+        long start = System.nanoTime();
+        Card card = issuer.issueCard();
+
+        latencies.get(Operation.CREATE).record(System.nanoTime() - start);
+
+        if (card == null) {
+            errors.get(Operation.CREATE).increment();
+        } else {
+            cards.set(customer, card.getCardNumber());
+        }
+
+        return card;
+    }
+
+    /**
+     * Reads the balance of an account and deletes it in the writer's transaction,
+     * so that no transfer can reach the account in between
+     *
+     * @param pooled Connection with an open transaction
+     * @param cardNumber Card number
+     * @return Balance of the deleted account, empty if it did not exist
+     * @throws SQLException If a statement fails
+     */
+    private static OptionalLong closeAccount(PooledConnection pooled, long cardNumber) throws SQLException {
+        PreparedStatement selectBalance = pooled.prepare(SELECT_BALANCE_SQL);
+        selectBalance.setLong(1, cardNumber);
+
+        try (ResultSet rst = selectBalance.executeQuery()) {
+            if (!rst.next()) {
+                return OptionalLong.empty();
+            }
+
+            long balance = rst.getLong("balance");
+            return deleteAccountInTable(pooled, cardNumber) ? OptionalLong.of(balance) : OptionalLong.empty();
+        }
+    }
+
+    /**
+     * Pauses the calling customer
+     *
+     * @param nanos Pause in nanoseconds
+     */
+    private static void sleepNanos(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds up the balances of every card in the database
+     *
+     * @param pool Database connection pool
+     * @return A long
+     * @throws SQLException If the balances cannot be read
+     */
+    private static long totalBalance(ConnectionPool pool) throws SQLException {
+        try (PooledConnection pooled = pool.borrow();
+             ResultSet rst = pooled.prepare(TOTAL_SQL).executeQuery()) {
+            rst.next();
+            return rst.getLong(1);
+        }
+    }
+
+    /**
+     * Prints the throughput and the latency percentiles of every operation
+     *
+     * @param customers Number of customers
+     * @param elapsed Duration of the run in seconds
+     */
+    private void printReport(int customers, double elapsed) {
+        long operations = 0;
+
+        for (LatencyHistogram histogram : latencies.values()) {
+            operations += histogram.getCount();
+        }
+
+        System.out.printf("customers=%d seconds=%.1f virtual=%b ops/s=%.0f%n", customers, elapsed,
+                VirtualThreads.isSupported(), operations / elapsed);
+
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            System.out.printf("%-8s ops/s=%-8.0f errors=%-6d %s%n", operation, histogram.getCount() / elapsed,
+                    errors.get(operation).sum(), histogram);
+        }
+
+        System.out.println(writer.getStatistics());
+    }
+}
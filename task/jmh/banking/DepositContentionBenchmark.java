@@ -0,0 +1,92 @@
+package banking;
+
+import org.sqlite.SQLiteDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import static banking.Main.getArgument;
+import static banking.Processor.*;
+
+/**
+ * This program hammers a single card with concurrent deposits
+ * and checks that none of them is lost: the final balance
+ * must equal the starting balance plus every deposit that
+ * reported success. It prints the deposit throughput and
+ * exits with status 1 if the invariant does not hold.
+ *
+ * Usage: DepositContentionBenchmark -fileName [Database File Name] -threads [Threads] -deposits [Deposits Per Thread]
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+public class DepositContentionBenchmark {
+
+    /**
+     * Main entry to the program
+     *
+     * @param args Terminal passed-down arguments
+     * @throws Exception If a worker thread fails
+     */
+    public static void main(String[] args) throws Exception {
+        String fileName = getArgument(args, "-fileName", "deposit-benchmark.s3db");
+        int threads = Integer.parseInt(getArgument(args, "-threads", "32"));
+        int depositsPerThread = Integer.parseInt(getArgument(args, "-deposits", "2000"));
+
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + fileName);
+
+        boolean isConsistent;
+
+        try (ConnectionPool pool = new ConnectionPool(dataSource, StorageProfile.BALANCED, threads)) {
+            if (!SchemaMigrator.migrate(pool)) {
+                System.exit(-1);
+            }
+
+            try (ShardedStore store = new ShardedStore(pool)) {
+                long hotCard = new CardIssuer(pool).issueCard().getCardNumber();
+                long startBalance = selectCardFromTable(pool, hotCard).getBalance();
+
+                LongAdder succeeded = new LongAdder();
+                LongAdder failed = new LongAdder();
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                List<Future<?>> futures = new ArrayList<>();
+                long start = System.nanoTime();
+
+                for (int t = 0; t < threads; t++) {
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < depositsPerThread; i++) {
+                            if (!store.deposit(hotCard, 1).join().isPresent()) {
+                                failed.increment();
+                            } else {
+                                succeeded.increment();
+                            }
+                        }
+                    }));
+                }
+
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                executor.shutdown();
+
+                long endBalance = selectCardFromTable(pool, hotCard).getBalance();
+                long expectedBalance = startBalance + succeeded.sum();
+                isConsistent = endBalance == expectedBalance;
+
+                System.out.printf("threads=%d deposits/s=%.0f succeeded=%d failed=%d%n",
+                        threads, succeeded.sum() / elapsed, succeeded.sum(), failed.sum());
+                System.out.printf("expected balance=%d actual balance=%d lost updates=%d%n",
+                        expectedBalance, endBalance, expectedBalance - endBalance);
+            }
+        }
+
+        System.exit(isConsistent ? 0 : 1);
+    }
+}
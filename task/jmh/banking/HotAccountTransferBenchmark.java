@@ -0,0 +1,156 @@
+package banking;
+
+import org.sqlite.SQLiteDataSource;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static banking.Main.getArgument;
+import static banking.Processor.*;
+
+/**
+ * This program lets many threads transfer money among a small
+ * set of hot accounts for a fixed time, either each through its
+ * own transaction, retried when the database is busy, or all
+ * through the single writer queue. It prints the transfer
+ * throughput, the outcome counts and the retry or queue counters,
+ * and exits with status 1 if the total balance of the hot
+ * accounts changed.
+ *
+ * Usage: HotAccountTransferBenchmark -fileName [Database File Name] -threads [Threads] -accounts [Hot Accounts] -seconds [Duration] -mode [transaction|queue]
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+public class HotAccountTransferBenchmark {
+
+    private static final long INITIAL_BALANCE = 1_000_000L;
+
+    /**
+     * Main entry to the program
+     *
+     * @param args Terminal passed-down arguments
+     * @throws Exception If a worker thread fails
+     */
+    public static void main(String[] args) throws Exception {
+        String fileName = getArgument(args, "-fileName", "transfer-benchmark.s3db");
+        int threads = Integer.parseInt(getArgument(args, "-threads", "32"));
+        int accounts = Integer.parseInt(getArgument(args, "-accounts", "4"));
+        int seconds = Integer.parseInt(getArgument(args, "-seconds", "10"));
+        boolean isQueued = "queue".equals(getArgument(args, "-mode", "transaction"));
+
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + fileName);
+
+        boolean isConserved;
+
+        try (ConnectionPool pool = new ConnectionPool(dataSource, StorageProfile.BALANCED, threads)) {
+            if (!SchemaMigrator.migrate(pool)) {
+                System.exit(-1);
+            }
+
+            CardIssuer issuer = new CardIssuer(pool);
+            long[] hotCards = new long[accounts];
+
+            try (ShardedStore store = new ShardedStore(pool)) {
+                for (int i = 0; i < accounts; i++) {
+                    hotCards[i] = issuer.issueCard().getCardNumber();
+                    store.deposit(hotCards[i], INITIAL_BALANCE).join();
+                }
+            }
+
+            LongAdder retries = new LongAdder();
+            WriteQueue writer = isQueued ? new WriteQueue(pool) : null;
+            Map<TransferResult.Status, LongAdder> outcomes = new EnumMap<>(TransferResult.Status.class);
+
+            for (TransferResult.Status status : TransferResult.Status.values()) {
+                outcomes.put(status, new LongAdder());
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            long end = start + seconds * 1_000_000_000L;
+
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                    while (System.nanoTime() < end) {
+                        int from = random.nextInt(accounts);
+                        int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+                        int amount = 1 + random.nextInt(10);
+                        TransferResult result = isQueued
+                                ? writer.transfer(hotCards[from], hotCards[to], amount).join()
+                                : transfer(pool, hotCards[from], hotCards[to], amount, retries);
+
+                        outcomes.get(result.getStatus()).increment();
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            executor.shutdown();
+
+            if (isQueued) {
+                writer.close();
+            }
+
+            long total = 0;
+            for (long hotCard : hotCards) {
+                total += selectCardFromTable(pool, hotCard).getBalance();
+            }
+            isConserved = total == INITIAL_BALANCE * accounts;
+
+            System.out.printf("mode=%s threads=%d accounts=%d transfers/s=%.0f%n", isQueued ? "queue" : "transaction",
+                    threads, accounts, outcomes.get(TransferResult.Status.SUCCESS).sum() / elapsed);
+            System.out.println("outcomes=" + outcomes);
+            System.out.println(isQueued ? writer.getStatistics() : "Retries: " + retries.sum());
+            System.out.println(pool.getStatistics());
+            System.out.printf("expected total=%d actual total=%d%n", INITIAL_BALANCE * accounts, total);
+        }
+
+        System.exit(isConserved ? 0 : 1);
+    }
+
+    /**
+     * Transfers an amount in a transaction of its own, kept only if the transfer succeeds
+     *
+     * @param pool Database connection pool
+     * @param fromNumber Credit card number from which amount will be withdrawn
+     * @param toNumber Credit card number upon which amount will be deposited
+     * @param amount Amount to be transferred
+     * @param retries Counts the transactions started again because the database was busy
+     * @return Outcome of the transfer
+     */
+    private static TransferResult transfer(ConnectionPool pool, long fromNumber, long toNumber, long amount,
+                                           LongAdder retries) {
+        try {
+            return RetryPolicy.DEFAULT.execute(pool, pooled -> {
+                setSavepoint(pooled);
+                TransferResult result = transferBalanceInTable(pooled, fromNumber, toNumber, amount);
+
+                if (result.isSuccess()) {
+                    releaseSavepoint(pooled);
+                } else {
+                    rollbackToSavepoint(pooled);
+                }
+                return result;
+            }, retries);
+        } catch (SQLException e) {
+            return TransferResult.FAILED;
+        }
+    }
+}
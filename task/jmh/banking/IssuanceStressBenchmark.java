@@ -0,0 +1,133 @@
+package banking;
+
+import org.sqlite.SQLiteDataSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static banking.Main.getArgument;
+
+/**
+ * This program measures how card issuance scales with the
+ * number of issuing threads. Every round doubles the thread
+ * count, each thread creates the same number of cards and
+ * all numbers of the round are checked for duplicates.
+ * The program exits with status 1 if any duplicate is found.
+ *
+ * Usage: IssuanceStressBenchmark -fileName [Database File Name] -threads [Max Threads] -cards [Cards Per Thread]
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+public class IssuanceStressBenchmark {
+
+    /**
+     * Main entry to the program
+     *
+     * @param args Terminal passed-down arguments
+     * @throws Exception If a worker thread fails
+     */
+    public static void main(String[] args) throws Exception {
+        String fileName = getArgument(args, "-fileName", "issuance-benchmark.s3db");
+        int maxThreads = Integer.parseInt(getArgument(args, "-threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int cardsPerThread = Integer.parseInt(getArgument(args, "-cards", "200000"));
+
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + fileName);
+
+        boolean hasDuplicates = false;
+
+        try (ConnectionPool pool = new ConnectionPool(dataSource, StorageProfile.BULK_LOAD, maxThreads)) {
+            if (!SchemaMigrator.migrate(pool)) {
+                System.exit(-1);
+            }
+
+            CardIssuer issuer = new CardIssuer(pool, new AccountAllocator(pool, 10_000));
+            double baseline = 0;
+
+            for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+                long[][] numbers = new long[threads][cardsPerThread];
+                double elapsed = runRound(issuer, numbers);
+                double throughput = threads * (double) cardsPerThread / elapsed;
+                int duplicates = countDuplicates(numbers);
+
+                if (baseline == 0) {
+                    baseline = throughput;
+                }
+                hasDuplicates |= duplicates > 0;
+
+                System.out.printf("threads=%d cards/s=%.0f speedup=%.2f efficiency=%.0f%% duplicates=%d%n",
+                        threads, throughput, throughput / baseline,
+                        100 * throughput / baseline / threads, duplicates);
+            }
+        }
+
+        System.exit(hasDuplicates ? 1 : 0);
+    }
+
+    /**
+     * Gets the thread count of the next round, doubling until the maximum is reached
+     *
+     * @param threads Thread count of the current round
+     * @param maxThreads Maximum thread count
+     * @return Integer value, above maxThreads once the last round has run
+     */
+    private static int nextThreadCount(int threads, int maxThreads) {
+        return threads == maxThreads ? maxThreads + 1 : Math.min(threads * 2, maxThreads);
+    }
+
+    /**
+     * Lets one thread per row of the array fill that row with new card numbers
+     *
+     * @param issuer Card issuing service
+     * @param numbers One row of card numbers per thread
+     * @return Elapsed time in seconds
+     * @throws Exception If a worker thread fails
+     */
+    private static double runRound(CardIssuer issuer, long[][] numbers) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(numbers.length);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (long[] row : numbers) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = issuer.newCard().getCardNumber();
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        return elapsed;
+    }
+
+    /**
+     * Counts the card numbers that appear more than once
+     *
+     * @param numbers Card numbers issued in a round
+     * @return Integer value
+     */
+    private static int countDuplicates(long[][] numbers) {
+        long[] all = Arrays.stream(numbers).flatMapToLong(Arrays::stream).sorted().toArray();
+        int duplicates = 0;
+
+        for (int i = 1; i < all.length; i++) {
+            if (all[i] == all[i - 1]) {
+                duplicates++;
+            }
+        }
+
+        return duplicates;
+    }
+}
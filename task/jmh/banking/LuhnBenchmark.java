@@ -0,0 +1,169 @@
+package banking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This program compares the Luhn engine against the
+ * string-parsing check digit code it replaced. Run it with
+ * the GC profiler (-prof gc) to see the allocation rate of
+ * each variant next to its speed.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LuhnBenchmark {
+
+    private static final int SIZE = 1_024;
+
+    private String[] numbers;
+    private long[] encodedNumbers;
+    private boolean[] results;
+    private int index;
+
+    /**
+     * Fills the benchmark with valid card numbers in the bank's format
+     */
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        numbers = new String[SIZE];
+        encodedNumbers = new long[SIZE];
+        results = new boolean[SIZE];
+
+        for (int i = 0; i < SIZE; i++) {
+            long payload = 400_000_000_000_000L + random.nextInt(AccountAllocator.ACCOUNT_SPACE);
+            encodedNumbers[i] = payload * 10 + Luhn.checkDigit(payload);
+            numbers[i] = Long.toString(encodedNumbers[i]);
+        }
+    }
+
+    /**
+     * Gets the next card number, cycling through the prepared ones
+     *
+     * @return A String
+     */
+    private String nextNumber() {
+        index = (index + 1) & (SIZE - 1);
+        return numbers[index];
+    }
+
+    @Benchmark
+    public int legacyCheckDigit() {
+        String number = nextNumber();
+        return legacyGenerateCheckSumDigit(number.substring(0, number.length() - 1));
+    }
+
+    @Benchmark
+    public int luhnCheckDigit() {
+        String number = nextNumber();
+        return Luhn.checkDigit(number, number.length() - 1);
+    }
+
+    @Benchmark
+    public int luhnCheckDigitEncoded() {
+        index = (index + 1) & (SIZE - 1);
+        return Luhn.checkDigit(encodedNumbers[index] / 10);
+    }
+
+    @Benchmark
+    public boolean legacyIsValid() {
+        return legacyIsCheckSumDigitValid(nextNumber());
+    }
+
+    @Benchmark
+    public boolean luhnIsValid() {
+        return Luhn.isValid(nextNumber());
+    }
+
+    @Benchmark
+    public boolean luhnIsValidEncoded() {
+        index = (index + 1) & (SIZE - 1);
+        return Luhn.isValid(encodedNumbers[index]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void legacyValidateAll(Blackhole blackhole) {
+        for (String number : numbers) {
+            blackhole.consume(legacyIsCheckSumDigitValid(number));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int luhnValidateAll() {
+        return Luhn.validate(numbers, results);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int luhnValidateAllEncoded() {
+        return Luhn.validate(encodedNumbers, results);
+    }
+
+    /**
+     * Check digit code as it was before the Luhn engine was introduced
+     *
+     * @param cardNumber Account Identifier concatenated to BIN
+     * @return Integer value
+     */
+    private static int legacyGenerateCheckSumDigit(String cardNumber) {
+        int controlNum = 0;
+        int val;
+
+        for (int i = 0; i < cardNumber.length(); i++) {
+            val = Integer.parseInt(String.valueOf(cardNumber.charAt(i)));
+            if ((i + 1) % 2 != 0) {
+                val *= 2;
+                if (val > 9) {
+                    val -= 9;
+                }
+            }
+            controlNum += val;
+        }
+
+        return ((controlNum % 10 == 0) ? 0 : 10 - (controlNum % 10));
+    }
+
+    /**
+     * Validation code as it was before the Luhn engine was introduced
+     *
+     * @param cardNumber Credit card number
+     * @return True if card number is valid, false otherwise
+     */
+    private static boolean legacyIsCheckSumDigitValid(String cardNumber) {
+        int checkSumDigit;
+        char lastChar = cardNumber.charAt(cardNumber.length() - 1);
+
+        try {
+            checkSumDigit = Integer.parseInt(String.valueOf(lastChar));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        String incompleteCardNumber = cardNumber.substring(0, cardNumber.length() - 1);
+        int validCheckSumDigit = legacyGenerateCheckSumDigit(incompleteCardNumber);
+
+        return checkSumDigit == validCheckSumDigit;
+    }
+}
@@ -0,0 +1,121 @@
+package banking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import static banking.Main.getArgument;
+
+/**
+ * This program runs many simulated customers through the
+ * console menus inside one program. Each customer creates an
+ * account, reads the card number and PIN off the screen, then
+ * logs in, adds income, checks the balance and logs out. It
+ * prints the number of sessions per second and exits with
+ * status 1 if any session did not see the expected screens.
+ * With '-storage memory' the menus run without any database.
+ *
+ * Usage: MenuSessionBenchmark -fileName [Database File Name] -customers [Customers] -threads [Threads] -storage [sqlite|memory|file]
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+public class MenuSessionBenchmark {
+
+    private static final int INCOME = 100;
+
+    /**
+     * Main entry to the program
+     *
+     * @param args Terminal passed-down arguments
+     * @throws Exception If a customer fails
+     */
+    public static void main(String[] args) throws Exception {
+        String fileName = getArgument(args, "-fileName", "menu-benchmark.s3db");
+        int customers = Integer.parseInt(getArgument(args, "-customers", "10000"));
+        int threads = Integer.parseInt(getArgument(args, "-threads", "1000"));
+        StorageBackend backend = StorageBackend.fromName(getArgument(args, "-storage",
+                StorageBackend.SQLITE.toString()));
+
+        LongAdder failed = new LongAdder();
+
+        try (CardRepository store = backend.open(fileName, StorageProfile.BALANCED,
+                Runtime.getRuntime().availableProcessors() * 2, 1)) {
+            if (store == null) {
+                System.exit(-1);
+            }
+
+            ExecutorService executor = VirtualThreads.newExecutor(threads);
+            List<Future<?>> futures = new ArrayList<>(customers);
+            long start = System.nanoTime();
+
+            for (int c = 0; c < customers; c++) {
+                futures.add(executor.submit(() -> {
+                    if (!runCustomer(store)) {
+                        failed.increment();
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            executor.shutdown();
+
+            System.out.printf("storage=%s customers=%d threads=%d virtual=%b sessions/s=%.0f failed=%d%n", backend,
+                    customers, threads, VirtualThreads.isSupported(), 2 * customers / elapsed, failed.sum());
+            System.out.println(store.getStatistics());
+        }
+
+        System.exit(failed.sum() == 0 ? 0 : 1);
+    }
+
+    /**
+     * Runs the two sessions of one simulated customer
+     *
+     * @param store Card storage
+     * @return True if the customer saw the expected screens, false otherwise
+     */
+    private static boolean runCustomer(CardRepository store) {
+        InMemorySessionIO signUp = new InMemorySessionIO("1 0");
+        new MenuSession(signUp, store).run();
+
+        String[] card = readCard(signUp.getOutput());
+
+        if (card == null) {
+            return false;
+        }
+
+        InMemorySessionIO banking = new InMemorySessionIO(
+                "2 " + card[0] + " " + card[1] + " 2 " + INCOME + " 1 5 0");
+        new MenuSession(banking, store).run();
+        String output = banking.getOutput();
+
+        return output.contains("You have successfully logged in!")
+                && output.contains("Income was added!")
+                && output.contains("Balance: " + INCOME)
+                && output.endsWith("Bye!");
+    }
+
+    /**
+     * Reads the number and PIN of a new card off the screen
+     *
+     * @param output Everything a session has written
+     * @return Card number and PIN, null if no card was created
+     */
+    private static String[] readCard(String output) {
+        String[] lines = output.split("\n");
+
+        for (int i = 0; i < lines.length - 4; i++) {
+            if (lines[i].equals("Your card has been created")) {
+                return new String[] {lines[i + 2].trim(), lines[i + 4].trim()};
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,179 @@
+package banking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sqlite.SQLiteDataSource;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+import static banking.Processor.*;
+
+/**
+ * This program measures the storage operations of the bank
+ * against databases that already hold 10 thousand, 1 million
+ * and 10 million cards. Each database is seeded once into its
+ * own file and reused by later runs; the operations then work
+ * on a random sample of its cards.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessorBenchmark {
+
+    private static final int SAMPLE_SIZE = 1_024;
+    private static final int SEED_CHUNK_SIZE = 10_000;
+    private static final long SAMPLE_BALANCE = 1_000_000_000L;
+
+    private static final String COUNT_SQL = "SELECT count(*) FROM card;";
+    private static final String SAMPLE_SQL = "SELECT number, pin FROM card ORDER BY random() LIMIT ?;";
+
+    @Param({"10000", "1000000", "10000000"})
+    public int cards;
+
+    private ConnectionPool pool;
+    private AccountAllocator allocator;
+    private CardIssuer issuer;
+    private ShardedStore store;
+    private long[] numbers;
+    private String[] pins;
+    private int index;
+
+    /**
+     * Seeds the database of this size if needed and picks the sample of cards
+     *
+     * @throws SQLException If the database cannot be seeded or read
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:jmh-cards-" + cards + ".s3db");
+
+        try (ConnectionPool seedPool = new ConnectionPool(dataSource, StorageProfile.BULK_LOAD, 1)) {
+            if (!SchemaMigrator.migrate(seedPool)) {
+                throw new IllegalStateException("Database could not be migrated");
+            }
+            seed(seedPool);
+        }
+
+        pool = new ConnectionPool(dataSource, StorageProfile.BALANCED, ConnectionPool.DEFAULT_POOL_SIZE);
+        allocator = new AccountAllocator(pool);
+        issuer = new CardIssuer(pool, allocator);
+        store = new ShardedStore(pool);
+        numbers = new long[SAMPLE_SIZE];
+        pins = new String[SAMPLE_SIZE];
+
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement selectSample = pooled.prepare(SAMPLE_SQL);
+            selectSample.setInt(1, SAMPLE_SIZE);
+
+            try (ResultSet rst = selectSample.executeQuery()) {
+                for (int i = 0; rst.next(); i++) {
+                    numbers[i] = rst.getLong("number");
+                    pins[i] = rst.getString("pin");
+                }
+            }
+        }
+
+        for (long number : numbers) {
+            store.deposit(number, SAMPLE_BALANCE).join();
+        }
+    }
+
+    /**
+     * Issues cards until the database holds the number of cards of this run
+     *
+     * @param seedPool Pool tuned for bulk loading
+     * @throws SQLException If the cards cannot be counted
+     */
+    private void seed(ConnectionPool seedPool) throws SQLException {
+        long existing;
+
+        try (PooledConnection pooled = seedPool.borrow();
+             ResultSet rst = pooled.prepare(COUNT_SQL).executeQuery()) {
+            rst.next();
+            existing = rst.getLong(1);
+        }
+
+        CardIssuer seedIssuer = new CardIssuer(seedPool, new AccountAllocator(seedPool, SEED_CHUNK_SIZE));
+
+        for (long seeded = existing; seeded < cards; seeded += SEED_CHUNK_SIZE) {
+            int count = (int) Math.min(SEED_CHUNK_SIZE, cards - seeded);
+
+            if (seedIssuer.issueCards(count).count() != count) {
+                throw new IllegalStateException("Database could not be seeded");
+            }
+        }
+    }
+
+    /**
+     * Closes the database
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+        pool.close();
+    }
+
+    /**
+     * Moves on to the next card of the sample
+     *
+     * @return Index of the card
+     */
+    private int next() {
+        index = (index + 1) & (SAMPLE_SIZE - 1);
+        return index;
+    }
+
+    @Benchmark
+    public Card selectCardByNumber() {
+        return selectCardFromTable(pool, numbers[next()]);
+    }
+
+    @Benchmark
+    public Card selectCardByNumberAndPin() {
+        int i = next();
+        return selectCardFromTable(pool, numbers[i], pins[i]);
+    }
+
+    @Benchmark
+    public OptionalLong updateBalance() {
+        return store.deposit(numbers[next()], 1).join();
+    }
+
+    @Benchmark
+    public TransferResult transferBalance() {
+        int i = next();
+        return store.transfer(numbers[i], numbers[(i + 1) & (SAMPLE_SIZE - 1)], 1).join();
+    }
+
+    @Benchmark
+    public int generateAccount() {
+        return allocator.nextAccount();
+    }
+
+    @Benchmark
+    public Card generateNewCard() {
+        return issuer.issueCard();
+    }
+}
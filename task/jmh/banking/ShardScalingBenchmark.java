@@ -0,0 +1,159 @@
+package banking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static banking.Main.getArgument;
+
+/**
+ * This program measures how write throughput grows with the
+ * number of shards. For each shard count it opens a fresh set
+ * of shard files, issues the accounts, then runs concurrent
+ * callers for a fixed time, each depositing one unit to a
+ * random card or, for a share of the operations, transferring
+ * one unit between two random cards. It prints the write
+ * throughput of every shard count and exits with status 1 if
+ * the total balance does not match the successful deposits,
+ * since transfers must neither create nor lose money.
+ *
+ * Usage: ShardScalingBenchmark -fileName [Database File Name] -shards [Shard Counts, e.g. 1,2,4,8] -threads [Threads] -accounts [Accounts] -seconds [Duration] -transferPercent [Percent]
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+public class ShardScalingBenchmark {
+
+    /**
+     * Main entry to the program
+     *
+     * @param args Terminal passed-down arguments
+     * @throws Exception If a caller fails
+     */
+    public static void main(String[] args) throws Exception {
+        String fileName = getArgument(args, "-fileName", "shard-benchmark.s3db");
+        String[] shardCounts = getArgument(args, "-shards", "1,2,4,8").split(",");
+        int threads = Integer.parseInt(getArgument(args, "-threads", "64"));
+        int accounts = Integer.parseInt(getArgument(args, "-accounts", "1000"));
+        int seconds = Integer.parseInt(getArgument(args, "-seconds", "10"));
+        int transferPercent = Integer.parseInt(getArgument(args, "-transferPercent", "20"));
+        int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+
+        boolean isConsistent = true;
+
+        for (String shardCount : shardCounts) {
+            int shards = Integer.parseInt(shardCount.trim());
+
+            try (ShardedStore store = ShardedStore.open(fileName, StorageProfile.BALANCED, poolSize, shards)) {
+                if (store == null) {
+                    System.exit(-1);
+                }
+
+                isConsistent &= run(store, threads, accounts, seconds, transferPercent);
+            }
+        }
+
+        System.exit(isConsistent ? 0 : 1);
+    }
+
+    /**
+     * Issues the accounts of one run, then runs the callers against them
+     *
+     * @param store Card storage
+     * @param threads Number of concurrent callers
+     * @param accounts Number of accounts to issue
+     * @param seconds Duration of the run
+     * @param transferPercent Share of the operations that are transfers
+     * @return True if the total balance matches the successful deposits, false otherwise
+     * @throws Exception If a caller fails
+     */
+    private static boolean run(ShardedStore store, int threads, int accounts, int seconds, int transferPercent)
+            throws Exception {
+        long[] cards = new long[accounts];
+
+        for (int i = 0; i < accounts; i++) {
+            Card card = store.issueCard();
+
+            if (card == null) {
+                return false;
+            }
+            cards[i] = card.getCardNumber();
+        }
+
+        long startTotal = totalBalance(store, cards);
+
+        LongAdder deposits = new LongAdder();
+        LongAdder transfers = new LongAdder();
+        LongAdder declined = new LongAdder();
+        LongAdder errors = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>(threads);
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                while (System.nanoTime() < end) {
+                    long card = cards[random.nextInt(cards.length)];
+
+                    if (random.nextInt(100) < transferPercent) {
+                        TransferResult result = store.transfer(card, cards[random.nextInt(cards.length)], 1).join();
+
+                        if (result.isSuccess()) {
+                            transfers.increment();
+                        } else if (result.getStatus() == TransferResult.Status.FAILED) {
+                            errors.increment();
+                        } else {
+                            declined.increment();
+                        }
+                    } else if (store.deposit(card, 1).join().isPresent()) {
+                        deposits.increment();
+                    } else {
+                        errors.increment();
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        long endTotal = totalBalance(store, cards);
+        long expectedTotal = startTotal + deposits.sum();
+
+        System.out.printf("shards=%d threads=%d writes/s=%.0f deposits=%d transfers=%d declined=%d errors=%d%n",
+                store.getShardCount(), threads, (deposits.sum() + transfers.sum()) / elapsed, deposits.sum(),
+                transfers.sum(), declined.sum(), errors.sum());
+        System.out.println(store.getStatistics());
+        System.out.printf("expected total=%d actual total=%d%n", expectedTotal, endTotal);
+
+        return endTotal == expectedTotal;
+    }
+
+    /**
+     * Adds up the balances of the specified cards
+     *
+     * @param store Card storage
+     * @param cards Card numbers
+     * @return A long
+     */
+    private static long totalBalance(ShardedStore store, long[] cards) {
+        long total = 0;
+
+        for (long number : cards) {
+            Card card = store.findCard(number);
+            total += card == null ? 0 : card.getBalance();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,246 @@
+package banking;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.LongConsumer;
+
+/**
+ * This program hands out unique 9 digit account identifiers
+ * without looking them up in the card table. Identifiers come
+ * from a sequence stored in the database, which is reserved in
+ * blocks so that most identifiers are handed out from memory.
+ * Every identifier is the sequence value passed through a keyed
+ * permutation of the identifier space, so identifiers look random
+ * and still never repeat. Handing out raw sequence values as
+ * well would let them collide with permuted ones. Blocks are kept in several stripes
+ * picked by thread, so concurrent issuers rarely wait for each
+ * other. Repositories without a database keep the sequence in
+ * memory instead and are told the end of every block reserved.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class AccountAllocator {
+
+    static final int ACCOUNT_SPACE = 1_000_000_000;
+    private static final int DEFAULT_BLOCK_SIZE = 1_000;
+
+    /* The permutation works on 30 bit values, the smallest power of two above ACCOUNT_SPACE */
+    private static final int HALF_BITS = 15;
+    private static final int HALF_MASK = (1 << HALF_BITS) - 1;
+    private static final int ROUNDS = 4;
+
+    private static final String RESERVE_SQL = "UPDATE account_sequence "
+            + "SET next_value = next_value + ? "
+            + "WHERE id = 0;";
+    private static final String SELECT_SQL = "SELECT next_value, permutation_key "
+            + "FROM account_sequence "
+            + "WHERE id = 0;";
+
+    private final ConnectionPool pool;
+    private final LongConsumer reservations;
+    private final int blockSize;
+    private final Block[] stripes;
+    private volatile long key;
+    private long nextValue;
+
+    /**
+     * Custom constructor
+     *
+     * @param pool Database connection pool
+     */
+    AccountAllocator(ConnectionPool pool) {
+        this(pool, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Custom constructor
+     *
+     * @param pool Database connection pool
+     * @param blockSize Number of identifiers reserved per database round trip
+     */
+    AccountAllocator(ConnectionPool pool, int blockSize) {
+        this(pool, null, blockSize);
+    }
+
+    /**
+     * Custom constructor for a sequence kept in memory
+     *
+     * @param nextValue First value of the sequence
+     * @param key Permutation key
+     * @param reservations Told the end of every block before its identifiers are handed out
+     */
+    AccountAllocator(long nextValue, long key, LongConsumer reservations) {
+        this(null, reservations, DEFAULT_BLOCK_SIZE);
+        this.nextValue = nextValue;
+        this.key = key;
+    }
+
+    /**
+     * Custom constructor
+     *
+     * @param pool Database connection pool, null if the sequence is kept in memory
+     * @param reservations Told the end of every block reserved in memory
+     * @param blockSize Number of identifiers reserved at a time
+     */
+    private AccountAllocator(ConnectionPool pool, LongConsumer reservations, int blockSize) {
+        this.pool = pool;
+        this.reservations = reservations;
+        this.blockSize = blockSize;
+        this.stripes = new Block[Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 4];
+
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Block();
+        }
+    }
+
+    /**
+     * Gets the next account identifier
+     *
+     * @return Integer between 0 and 999999999
+     * @throws IllegalStateException If the sequence cannot be reserved or is exhausted
+     */
+    int nextAccount() {
+        Block block = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        int value;
+
+        synchronized (block) {
+            if (block.next == block.limit) {
+                reserveBlock(block);
+            }
+            value = (int) block.next++;
+        }
+
+        return permute(value, key);
+    }
+
+    /**
+     * Reserves the next block of the sequence in the database. The update
+     * takes the write lock before the new value is read, so concurrent
+     * issuers, in this or any other process, never get the same block.
+     *
+     * @param block Stripe that receives the reserved block
+     */
+    private void reserveBlock(Block block) {
+        if (pool == null) {
+            reserveInMemory(block);
+            return;
+        }
+
+        try (PooledConnection pooled = pool.borrow()) {
+            Connection con = pooled.getConnection();
+            con.setAutoCommit(false);
+
+            PreparedStatement reserve = pooled.prepare(RESERVE_SQL);
+            reserve.setInt(1, blockSize);
+            reserve.executeUpdate();
+
+            PreparedStatement select = pooled.prepare(SELECT_SQL);
+
+            try (ResultSet rst = select.executeQuery()) {
+                if (!rst.next()) {
+                    throw new IllegalStateException("Account sequence is missing");
+                }
+
+                long end = rst.getLong("next_value");
+
+                if (end > ACCOUNT_SPACE) {
+                    throw new IllegalStateException("No account numbers left to allocate");
+                }
+
+                key = rst.getLong("permutation_key");
+                block.next = end - blockSize;
+                block.limit = end;
+            }
+
+            con.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not reserve account numbers", e);
+        }
+    }
+
+    /**
+     * Reserves the next block of the sequence kept in memory
+     *
+     * @param block Stripe that receives the reserved block
+     */
+    private synchronized void reserveInMemory(Block block) {
+        long end = nextValue + blockSize;
+
+        if (end > ACCOUNT_SPACE) {
+            throw new IllegalStateException("No account numbers left to allocate");
+        }
+
+        reservations.accept(end);
+        nextValue = end;
+        block.next = end - blockSize;
+        block.limit = end;
+    }
+
+    /**
+     * Range of the sequence reserved for one stripe
+     */
+    private static class Block {
+        private long next;
+        private long limit;
+    }
+
+    /**
+     * Maps a sequence value to a random-looking identifier. The mapping is a
+     * bijection of [0, ACCOUNT_SPACE), so distinct values give distinct identifiers.
+     * A Feistel network permutes 30 bit values and values that land outside the
+     * identifier space are permuted again until they fall inside it.
+     *
+     * @param value Sequence value
+     * @param key Permutation key
+     * @return Integer between 0 and 999999999
+     */
+    static int permute(int value, long key) {
+        int result = value;
+
+        do {
+            result = feistel(result, key);
+        } while (result >= ACCOUNT_SPACE);
+
+        return result;
+    }
+
+    /**
+     * Runs one pass of the Feistel network over a 30 bit value
+     *
+     * @param value 30 bit value
+     * @param key Permutation key
+     * @return 30 bit value
+     */
+    private static int feistel(int value, long key) {
+        int left = value >>> HALF_BITS;
+        int right = value & HALF_MASK;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            int mixed = left ^ roundFunction(right, key, round);
+            left = right;
+            right = mixed;
+        }
+
+        return (left << HALF_BITS) | right;
+    }
+
+    /**
+     * Scrambles half of a value with the key
+     *
+     * @param half 15 bit value
+     * @param key Permutation key
+     * @param round Round number
+     * @return 15 bit value
+     */
+    private static int roundFunction(int half, long key, int round) {
+        long x = (half + ((long) round << 32)) * 0x9E3779B97F4A7C15L ^ key;
+        x ^= x >>> 31;
+        x *= 0xBF58476D1CE4E5B9L;
+        x ^= x >>> 29;
+
+        return (int) x & HALF_MASK;
+    }
+}
@@ -0,0 +1,187 @@
+package banking;
+
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * This program offers the card operations without blocking the
+ * caller. Lookups run on a configurable executor, changes are
+ * handed to the write queue of the card's shard, and every operation returns
+ * a future. The number of operations in flight is limited, so
+ * that when the storage layer falls behind new operations wait
+ * for a while and are then rejected instead of piling up.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class AsyncCardService implements AutoCloseable {
+
+    static final int DEFAULT_MAX_IN_FLIGHT = 512;
+    static final long DEFAULT_ADMISSION_TIMEOUT_MILLIS = 1_000;
+
+    private final CardRepository store;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final long admissionTimeoutMillis;
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * Custom constructor
+     *
+     * @param store Card storage
+     * @param executor Executor on which lookups and issuance run
+     */
+    AsyncCardService(CardRepository store, ExecutorService executor) {
+        this(store, executor, DEFAULT_MAX_IN_FLIGHT, DEFAULT_ADMISSION_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Custom constructor
+     *
+     * @param store Card storage
+     * @param executor Executor on which lookups and issuance run
+     * @param maxInFlight Maximum number of operations started and not yet completed
+     * @param admissionTimeoutMillis Time an operation waits to start before it is rejected
+     */
+    AsyncCardService(CardRepository store, ExecutorService executor, int maxInFlight, long admissionTimeoutMillis) {
+        this.store = store;
+        this.executor = executor;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+    }
+
+    /**
+     * Creates an executor for the service by name
+     *
+     * @param kind 'virtual' for a virtual thread per task, anything else for a fixed pool
+     * @param threads Number of platform threads of a fixed pool
+     * @return An ExecutorService
+     */
+    static ExecutorService newExecutor(String kind, int threads) {
+        return "virtual".equals(kind) ? VirtualThreads.newExecutor(threads) : Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Looks up a card by number
+     *
+     * @param cardNumber Card number
+     * @return Future completed with the card, null if it does not exist
+     */
+    CompletableFuture<Card> find(long cardNumber) {
+        return admit(() -> CompletableFuture.supplyAsync(() -> store.findCard(cardNumber), executor));
+    }
+
+    /**
+     * Looks up a card by number and PIN
+     *
+     * @param cardNumber Card number
+     * @param pin Card PIN
+     * @return Future completed with the card, null if the number and PIN do not match
+     */
+    CompletableFuture<Card> login(long cardNumber, String pin) {
+        return admit(() -> CompletableFuture.supplyAsync(() -> store.findCard(cardNumber, pin), executor));
+    }
+
+    /**
+     * Adds an amount to the balance of a card
+     *
+     * @param cardNumber Card number
+     * @param amount Amount to be added
+     * @return Future completed with the new balance, empty if the deposit was refused
+     */
+    CompletableFuture<OptionalLong> deposit(long cardNumber, long amount) {
+        return admit(() -> store.deposit(cardNumber, amount));
+    }
+
+    /**
+     * Transfers an amount between two cards
+     *
+     * @param fromNumber Credit card number from which amount will be withdrawn
+     * @param toNumber Credit card number upon which amount will be deposited
+     * @param amount Amount to be transferred
+     * @return Future completed with the outcome of the transfer
+     */
+    CompletableFuture<TransferResult> transfer(long fromNumber, long toNumber, long amount) {
+        return admit(() -> store.transfer(fromNumber, toNumber, amount));
+    }
+
+    /**
+     * Issues and stores a new card
+     *
+     * @return Future completed with the new card, null if it could not be stored
+     */
+    CompletableFuture<Card> issue() {
+        return admit(() -> CompletableFuture.supplyAsync(store::issueCard, executor));
+    }
+
+    /**
+     * Closes the account of a card
+     *
+     * @param cardNumber Card number
+     * @return Future completed with true if the card was deleted, false otherwise
+     */
+    CompletableFuture<Boolean> closeAccount(long cardNumber) {
+        return admit(() -> store.deleteAccount(cardNumber));
+    }
+
+    /**
+     * Starts an operation once the number of operations in flight allows it
+     *
+     * @param operation Starts the operation and returns its future
+     * @param <T> Type of the result
+     * @return Future of the operation, failed with RejectedExecutionException if it could not be started in time
+     */
+    private <T> CompletableFuture<T> admit(Supplier<CompletableFuture<T>> operation) {
+        try {
+            if (!inFlight.tryAcquire(admissionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                rejectedCount.increment();
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Storage is saturated"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<T> future;
+
+        try {
+            future = operation.get();
+        } catch (RuntimeException e) {
+            inFlight.release();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return future.whenComplete((result, error) -> inFlight.release());
+    }
+
+    /**
+     * Gets the number of operations rejected because too many were in flight
+     *
+     * @return A long
+     */
+    long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Stops the executor after the operations already started
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(DEFAULT_ADMISSION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package banking;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This program serves many customers at once over TCP on
+ * localhost. Every connection is a session that runs on its own
+ * virtual thread where available and is handed to a session
+ * handler, which speaks either the line-oriented command
+ * protocol or the console menus. The number of simultaneous
+ * sessions is limited.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class BankServer implements AutoCloseable {
+
+    static final int DEFAULT_MAX_SESSIONS = 10_000;
+
+    private static final int BACKLOG = 1024;
+
+    /**
+     * Talks to the customer on one connection until the session ends
+     */
+    interface SessionHandler {
+
+        /**
+         * Runs the session of a connection
+         *
+         * @param socket Connection of the session
+         * @throws IOException If the connection fails
+         */
+        void handle(Socket socket) throws IOException;
+    }
+
+    private final ServerSocket serverSocket;
+    private final SessionHandler handler;
+    private final ExecutorService sessions;
+    private final int maxSessions;
+    private final Semaphore sessionPermits;
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private final LongAdder rejectedSessionCount = new LongAdder();
+    private volatile boolean isClosed;
+
+    /**
+     * Custom constructor
+     *
+     * @param port Port to listen on, 0 for any free port
+     * @param maxSessions Maximum number of simultaneous sessions
+     * @param handler Runs the session of each connection
+     * @throws IOException If the port cannot be opened
+     */
+    BankServer(int port, int maxSessions, SessionHandler handler) throws IOException {
+        this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        this.handler = handler;
+        this.sessions = VirtualThreads.newExecutor(maxSessions);
+        this.maxSessions = maxSessions;
+        this.sessionPermits = new Semaphore(maxSessions);
+    }
+
+    /**
+     * Gets the port the server listens on
+     *
+     * @return Integer value
+     */
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed. A connection that
+     * arrives when the maximum number of sessions is open is told so and closed.
+     */
+    void serve() {
+        while (!isClosed) {
+            Socket socket;
+
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!isClosed) {
+                    e.printStackTrace();
+                }
+                break;
+            }
+
+            if (!sessionPermits.tryAcquire()) {
+                rejectedSessionCount.increment();
+                rejectSession(socket);
+                continue;
+            }
+
+            sessions.execute(() -> {
+                try {
+                    runSession(socket);
+                } finally {
+                    sessionPermits.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Tells a connection that no session is available and closes it
+     *
+     * @param socket Connection to reject
+     */
+    private static void rejectSession(Socket socket) {
+        try (Socket rejected = socket) {
+            rejected.getOutputStream().write("ERR Too many sessions\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // The client is gone already
+        }
+    }
+
+    /**
+     * Runs the session of a connection and closes the connection when it ends
+     *
+     * @param socket Connection of the session
+     */
+    private void runSession(Socket socket) {
+        openSockets.add(socket);
+
+        try (Socket session = socket) {
+            handler.handle(session);
+        } catch (IOException | UncheckedIOException e) {
+            if (!isClosed) {
+                System.err.println("Session ended: " + e.getMessage());
+            }
+        } finally {
+            openSockets.remove(socket);
+        }
+    }
+
+    /**
+     * Gets a summary of the sessions
+     *
+     * @return A String
+     */
+    String getStatistics() {
+        return "Sessions: " + (maxSessions - sessionPermits.availablePermits())
+                + ", rejected sessions: " + rejectedSessionCount.sum();
+    }
+
+    /**
+     * Stops accepting connections and ends the open sessions
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        for (Socket socket : openSockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // The session ends on its own
+            }
+        }
+
+        sessions.shutdown();
+
+        try {
+            sessions.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
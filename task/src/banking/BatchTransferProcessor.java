@@ -0,0 +1,270 @@
+package banking;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import static banking.Processor.*;
+
+/**
+ * This program applies a file of card-to-card transfers. Each
+ * line holds 'from,to,amount,reference'. Transfers are grouped
+ * into chunks that share one transaction and one commit, while
+ * a savepoint around every transfer keeps each of them
+ * all-or-nothing. One result line per transfer is written once
+ * its chunk has been committed, in the order of the file, with
+ * malformed lines reported in their place.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class BatchTransferProcessor {
+
+    static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private final ConnectionPool pool;
+    private final RetryPolicy policy;
+    private final int chunkSize;
+    private final LongAdder retryCount = new LongAdder();
+
+    private long transferCount;
+    private long successCount;
+    private long malformedCount;
+    private long commitCount;
+    private long elapsedNanos;
+
+    /**
+     * Custom constructor
+     *
+     * @param pool Database connection pool
+     * @param policy Retry policy for chunks that find the database busy
+     * @param chunkSize Number of transfers committed together
+     */
+    BatchTransferProcessor(ConnectionPool pool, RetryPolicy policy, int chunkSize) {
+        this.pool = pool;
+        this.policy = policy;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Reads transfers until the end of the input, applies them and writes one
+     * result line per transfer: 'line,reference,status,balance'. The balance is
+     * the sender's new balance and is only filled in for successful transfers.
+     * References holding a comma or a double quote are quoted as in CSV.
+     * Blank lines and lines starting with '#' are skipped.
+     *
+     * @param input Transfer file
+     * @param report Destination of the result lines
+     * @throws IOException If the file cannot be read or the report cannot be written
+     */
+    void process(BufferedReader input, Writer report) throws IOException {
+        long start = System.nanoTime();
+        List<BatchTransfer> chunk = new ArrayList<>(chunkSize);
+        int lineNumber = 0;
+        String line;
+
+        while ((line = input.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+
+            BatchTransfer transfer = BatchTransfer.parse(lineNumber, line);
+
+            if (transfer == null) {
+                malformedCount++;
+                transfer = BatchTransfer.malformed(lineNumber);
+            }
+
+            chunk.add(transfer);
+
+            if (chunk.size() == chunkSize) {
+                applyChunk(chunk, report);
+                chunk.clear();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            applyChunk(chunk, report);
+        }
+
+        report.flush();
+        elapsedNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Applies a chunk of transfers in one transaction, retrying the whole
+     * chunk if the database is busy, and reports their results
+     *
+     * @param chunk Transfers to apply
+     * @param report Destination of the result lines
+     * @throws IOException If the report cannot be written
+     */
+    private void applyChunk(List<BatchTransfer> chunk, Writer report) throws IOException {
+        try {
+            policy.execute(pool, pooled -> {
+                for (BatchTransfer transfer : chunk) {
+                    if (!transfer.isMalformed) {
+                        transfer.result = applyTransfer(pooled, transfer);
+                    }
+                }
+                return null;
+            }, retryCount);
+            commitCount++;
+        } catch (SQLException e) {
+            if (!RetryPolicy.isBusy(e)) {
+                e.printStackTrace();
+            }
+
+            for (BatchTransfer transfer : chunk) {
+                transfer.result = TransferResult.FAILED;
+            }
+        }
+
+        for (BatchTransfer transfer : chunk) {
+            if (!transfer.isMalformed) {
+                transferCount++;
+
+                if (transfer.result.isSuccess()) {
+                    successCount++;
+                }
+            }
+            report.write(transfer.toReportLine());
+        }
+    }
+
+    /**
+     * Applies one transfer inside a savepoint, so that a transfer that does
+     * not succeed leaves no trace in the chunk's transaction
+     *
+     * @param pooled Connection with an open transaction
+     * @param transfer Transfer to apply
+     * @return Outcome of the transfer
+     * @throws SQLException If a statement fails
+     */
+    private static TransferResult applyTransfer(PooledConnection pooled, BatchTransfer transfer) throws SQLException {
+        setSavepoint(pooled);
+
+        TransferResult result = transferBalanceInTable(pooled, transfer.fromNumber, transfer.toNumber, transfer.amount);
+
+        if (result.isSuccess()) {
+            releaseSavepoint(pooled);
+        } else {
+            rollbackToSavepoint(pooled);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets a summary of the processed transfers and throughput
+     *
+     * @return A String
+     */
+    String getStatistics() {
+        double seconds = elapsedNanos / 1e9;
+
+        return String.format("Transfers: %d, succeeded: %d, malformed: %d, commits: %d, retries: %d, "
+                        + "transfers/sec: %.0f, commits/sec: %.1f",
+                transferCount, successCount, malformedCount, commitCount, retryCount.sum(),
+                seconds == 0 ? 0 : transferCount / seconds,
+                seconds == 0 ? 0 : commitCount / seconds);
+    }
+
+    /**
+     * One line of a transfer file
+     */
+    private static class BatchTransfer {
+
+        private final int lineNumber;
+        private final long fromNumber;
+        private final long toNumber;
+        private final long amount;
+        private final String reference;
+        private final boolean isMalformed;
+        private TransferResult result;
+
+        private BatchTransfer(int lineNumber, long fromNumber, long toNumber, long amount, String reference,
+                              boolean isMalformed) {
+            this.lineNumber = lineNumber;
+            this.fromNumber = fromNumber;
+            this.toNumber = toNumber;
+            this.amount = amount;
+            this.reference = reference;
+            this.isMalformed = isMalformed;
+        }
+
+        /**
+         * Stands in for a line that could not be read, so it is reported in its place
+         *
+         * @param lineNumber Line number in the file
+         * @return A BatchTransfer that is never applied
+         */
+        private static BatchTransfer malformed(int lineNumber) {
+            return new BatchTransfer(lineNumber, -1, -1, 0, "", true);
+        }
+
+        /**
+         * Reads a transfer from a line of the file
+         *
+         * @param lineNumber Line number in the file
+         * @param line Line in the form 'from,to,amount,reference'
+         * @return A BatchTransfer, null if the line is malformed
+         */
+        private static BatchTransfer parse(int lineNumber, String line) {
+            int first = line.indexOf(',');
+            int second = line.indexOf(',', first + 1);
+
+            if (first < 0 || second < 0) {
+                return null;
+            }
+
+            int third = line.indexOf(',', second + 1);
+            long fromNumber = Card.parseCardNumber(line.substring(0, first).trim());
+            long toNumber = Card.parseCardNumber(line.substring(first + 1, second).trim());
+            long amount = Money.parse(line.substring(second + 1, third < 0 ? line.length() : third).trim());
+            String reference = third < 0 ? "" : line.substring(third + 1).trim();
+
+            if (fromNumber < 0 || toNumber < 0 || amount == Money.NOT_AN_AMOUNT) {
+                return null;
+            }
+
+            return new BatchTransfer(lineNumber, fromNumber, toNumber, amount, reference, false);
+        }
+
+        /**
+         * Gets the result line reported for this transfer
+         *
+         * @return A String
+         */
+        private String toReportLine() {
+            if (isMalformed) {
+                return lineNumber + ",,MALFORMED,\n";
+            }
+
+            return lineNumber + "," + quote(reference) + "," + result.getStatus() + ","
+                    + (result.isSuccess() ? String.valueOf(result.getBalance()) : "") + "\n";
+        }
+
+        /**
+         * Quotes a report field that holds a comma or a double quote, doubling
+         * its double quotes, so the field stays one column
+         *
+         * @param field Field value
+         * @return A String
+         */
+        private static String quote(String field) {
+            if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+                return field;
+            }
+
+            return '"' + field.replace("\"", "\"\"") + '"';
+        }
+    }
+}
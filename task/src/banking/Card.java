@@ -1,8 +1,7 @@
 package banking;
 
-import org.sqlite.SQLiteDataSource;
-import java.util.Random;
-import static banking.Processor.*;
+import java.util.OptionalLong;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * This program represents a credit card
@@ -12,22 +11,22 @@ import static banking.Processor.*;
  */
 public class Card {
 
-    private String binNumber;
     private String pin;
-    private String account;
-    private static int count;
-    private int checkDigit;
-    private double balance;
-    private String cardNumber;
+    private long balance;
+    private long cardNumber;
+
+    private static final long BIN_NUMBER = 400_000L;
+    private static final int CARD_NUMBER_LENGTH = 16;
+    private static final int PIN_LENGTH = 4;
 
     /**
      * Custom constructor
      *
      * @param cardNumber Credit card number
      * @param pin Credit card PIN
-     * @param balance Credit card balance
+     * @param balance Credit card balance in minor units
      */
-    Card (String cardNumber, String pin, double balance) {
+    Card (long cardNumber, String pin, long balance) {
         this.cardNumber = cardNumber;
         this.pin = pin;
         this.balance = balance;
@@ -35,78 +34,53 @@ public class Card {
 
     /**
      * Default constructor
+     *
+     * @param allocator Source of unique account identifiers
      */
-    private Card(boolean isRandom) {
+    Card(AccountAllocator allocator) {
+        long account = generateAccount(allocator);
+        long payload = BIN_NUMBER * AccountAllocator.ACCOUNT_SPACE + account;
+
         pin = generatePIN();
-        account = generateAccount(isRandom);
-        binNumber = "400000";
-        checkDigit = generateCheckSumDigit(binNumber + account);
-        balance = 0d;
-        cardNumber = binNumber + account + checkDigit;
+        balance = 0;
+        cardNumber = payload * 10 + generateCheckSumDigit(payload);
     }
 
     /**
-     * Generates random 4 digit PIN
+     * Generates random 4 digit PIN using the calling thread's own random source
      *
      * @return A String
      */
-    private String generatePIN() {
-        String pin = "";
+    static String generatePIN() {
+        int value = ThreadLocalRandom.current().nextInt(10_000);
+        char[] digits = new char[PIN_LENGTH];
 
-        for (int i = 0; i < 4; i++) {
-            pin += new Random().nextInt(10);
+        for (int i = PIN_LENGTH - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + value % 10);
+            value /= 10;
         }
 
-        return pin;
+        return new String(digits);
     }
 
     /**
      * Generates unique customer account number
      *
-     * @param isRandom Indicates whether number should be randomly or sequentially generated
-     * @return A String
+     * @param allocator Source of unique account identifiers
+     * @return Integer value
      */
-    private String generateAccount(boolean isRandom) {
-        String account = "";
-
-        if (isRandom) {
-            Random rand = new Random();
-            account += (rand.nextInt(999999999));
-        } else {
-            account += count++;
-        }
-
-        int size = account.length();
-
-        for (int i = 0; i < (9 - size); i++) {
-            account = "0" + account;
-        }
-
-        return account;
+    private int generateAccount(AccountAllocator allocator) {
+        return allocator.nextAccount();
     }
 
     /**
      * Generates the checksum digit to be added to the credit card number
      *
-     * @param cardNumber Account Identifier concatenated to BIN
+     * @param payload Account Identifier concatenated to BIN
      * @return Integer value
      */
-    private static int generateCheckSumDigit(String cardNumber) {
-        int controlNum = 0;
-        int val;
-
-        for (int i = 0; i < cardNumber.length(); i++) {
-            val = Integer.parseInt(String.valueOf(cardNumber.charAt(i))); // Convert character to integer
-            if ((i + 1) % 2 != 0) {
-                val *= 2; // Multiply integer by 2
-                if (val > 9) {
-                    val -= 9; // Subtract 9 if integer is above 9
-                }
-            }
-            controlNum += val;
-        }
-
-        return ((controlNum % 10 == 0) ? 0 : 10 - (controlNum % 10));
+    static int generateCheckSumDigit(long payload) {
+        return Luhn.checkDigit(payload);
     }
 
     /**
@@ -117,19 +91,53 @@ public class Card {
      * @return True if card number is valid, false otherwise
      */
     static boolean isCheckSumDigitValid(String cardNumber) {
-        int checkSumDigit;
-        char lastChar = cardNumber.charAt(cardNumber.length() - 1);
+        return Luhn.isValid(cardNumber);
+    }
 
-        try {
-            checkSumDigit = Integer.parseInt(String.valueOf(lastChar));
-        } catch (NumberFormatException e) {
-            return false;
+    /**
+     * Indicates whether the credit card number is valid by
+     * verifying the check digit sum
+     *
+     * @param cardNumber Credit card number
+     * @return True if card number is valid, false otherwise
+     */
+    static boolean isCheckSumDigitValid(long cardNumber) {
+        return Luhn.isValid(cardNumber);
+    }
+
+    /**
+     * Converts a card number entered by the user to its numeric form
+     *
+     * @param input User-entered card number
+     * @return Card number, or -1 if the input is missing or is not a 16 digit number
+     */
+    static long parseCardNumber(String input) {
+        if (input == null || input.length() != CARD_NUMBER_LENGTH) {
+            return -1;
         }
 
-        String incompleteCardNumber = cardNumber.substring(0, cardNumber.length() - 1);
-        int validCheckSumDigit = generateCheckSumDigit(incompleteCardNumber);
+        long cardNumber = 0;
 
-        return checkSumDigit == validCheckSumDigit;
+        for (int i = 0; i < CARD_NUMBER_LENGTH; i++) {
+            int digit = input.charAt(i) - '0';
+
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            cardNumber = cardNumber * 10 + digit;
+        }
+
+        return cardNumber;
+    }
+
+    /**
+     * Converts a card number to the form shown to the user
+     *
+     * @param cardNumber Credit card number
+     * @return A String
+     */
+    static String formatCardNumber(long cardNumber) {
+        return Long.toString(cardNumber);
     }
 
     /**
@@ -144,18 +152,18 @@ public class Card {
     /**
      * Gets the card number
      *
-     * @return A String
+     * @return A long
      */
-    String getCardNumber() {
+    long getCardNumber() {
         return (cardNumber);
     }
 
     /**
-     * Gets the balance in user's account
+     * Gets the balance in user's account in minor units
      *
-     * @return A double
+     * @return A long
      */
-     double getBalance() {
+     long getBalance() {
         return balance;
     }
 
@@ -169,115 +177,65 @@ public class Card {
     public String toString() {
         return ("Your card has been created\n"
                 + "Your card number:\n"
-                + getCardNumber() + "\n"
+                + formatCardNumber(getCardNumber()) + "\n"
                 + "Your card PIN:\n"
                 + getPIN());
     }
 
-    /**
-     * Displays credit card information such as card number and PIN
-     *
-     * @param card Instance of Card Object
-     */
-    static void displayCardInformation(Card card) {
-        System.out.println(card.toString());
-    }
-
-    /**
-     * Displays the balance in the user's account
-     */
-    void displayBalance() {
-
-        System.out.println("Balance: " + (int) getBalance());
-    }
-
-    /**
-     * Prompts user to enter login information and indicates
-     * whether account exists.
-     *
-     * @return True if account exists, false otherwise
-     */
-    static Card findCard(SQLiteDataSource dataSource, String cardNumber, String pin) {
-        return selectCardFromTable(dataSource, cardNumber, pin);
-    }
-
-    static Card findCard(SQLiteDataSource dataSource, String cardNumber) {
-        return selectCardFromTable(dataSource, cardNumber);
-    }
-
-    /**
-     * Generates new Card object and stores its data in a db table
-     * @param dataSource SQLite data source
-     */
-    static boolean generateNewCard(SQLiteDataSource dataSource, boolean isRandom) {
-        Card newCard;
-
-        do {
-            newCard = new Card(isRandom);
-        } while (selectCardFromTable(dataSource, newCard.cardNumber) != null);
-
-        if (insertCardInfoToTable(dataSource, newCard)) {
-            displayCardInformation(newCard);
-            return true;
-        }
-
-        return false;
-    }
-
     /**
      * Adds specified amount to this object's balance amount
      *
-     * @param income Amount to be added
+     * @param income Amount to be added in minor units
+     * @param store Card storage
      * @return True if amount was successfully added, false otherwise
      */
-    boolean addIncome(int income, SQLiteDataSource dataSource) {
-        int currBalance = (int) getBalance();
-        setBalance(currBalance + income);
+    boolean addIncome(long income, CardRepository store) {
+        OptionalLong newBalance = store.deposit(getCardNumber(), income).join();
 
-        if (updateBalanceInTable(dataSource, getCardNumber(), getBalance())) {
-            return true;
+        if (!newBalance.isPresent()) {
+            return false;
         }
 
-        setBalance(currBalance);
-        return false;
+        setBalance(newBalance.getAsLong());
+        return true;
     }
 
     /**
      * Sets a new balance
      *
-     * @param balance New balance
+     * @param balance New balance in minor units
      */
-    private void setBalance(double balance) {
+    private void setBalance(long balance) {
         this.balance = balance;
     }
 
     /**
-     * Transfer specified amount from this Card object to another specified object of the same type
+     * Transfer specified amount from this card to the card with the specified number
      *
      * @param amount Amount to be transferred
-     * @param otherCard Card object to receive transfer
-     * @param dataSource SQLite data source
-     * @return True if transfer was successful, false otherwise
+     * @param toNumber Number of the card to receive transfer
+     * @param store Card storage
+     * @return Outcome of the transfer
      */
-    boolean transferBalanceTo(int amount, Card otherCard, SQLiteDataSource dataSource) {
-        if (transferBalanceInTable(dataSource, getCardNumber(), otherCard.getCardNumber(), amount)) {
-            setBalance(getBalance() - amount);
-            otherCard.setBalance(getBalance() + amount);
-            return true;
+    TransferResult transferBalanceTo(long amount, long toNumber, CardRepository store) {
+        TransferResult result = store.transfer(getCardNumber(), toNumber, amount).join();
+
+        if (result.isSuccess()) {
+            setBalance(result.getBalance());
         }
 
-        return false;
+        return result;
     }
 
     /**
      * Deletes the table row associated with the specified card number
      *
-     * @param dataSource SQLite data source
+     * @param store Card storage
      * @param cardNumber Card number
      * @return True if record was successfully deleted in table, false otherwise
      */
-    static boolean deleteAccount(SQLiteDataSource dataSource, String cardNumber) {
-        if (deleteAccountInTable(dataSource, cardNumber)) {
+    static boolean deleteAccount(CardRepository store, long cardNumber) {
+        if (store.deleteAccount(cardNumber).join()) {
             return true;
         }
 
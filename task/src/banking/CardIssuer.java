@@ -0,0 +1,149 @@
+package banking;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import static banking.Processor.*;
+
+/**
+ * This program issues new cards and stores them in the
+ * database. It can be shared by any number of threads:
+ * account numbers come from a striped allocator and PINs
+ * from each thread's own random source, so issuers do not
+ * wait on each other until they reach the database.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class CardIssuer {
+
+    private static final int MAX_INSERT_ATTEMPTS = 3;
+
+    private final ConnectionPool pool;
+    private final AccountAllocator allocator;
+    private final WriteQueue writer;
+    private final LongAdder issuedCount = new LongAdder();
+
+    /**
+     * Custom constructor
+     *
+     * @param pool Database connection pool
+     */
+    CardIssuer(ConnectionPool pool) {
+        this(pool, new AccountAllocator(pool));
+    }
+
+    /**
+     * Custom constructor
+     *
+     * @param pool Database connection pool
+     * @param allocator Source of unique account identifiers
+     */
+    CardIssuer(ConnectionPool pool, AccountAllocator allocator) {
+        this(pool, allocator, null);
+    }
+
+    /**
+     * Custom constructor
+     *
+     * @param pool Database connection pool
+     * @param allocator Source of unique account identifiers
+     * @param writer Queue through which single cards are stored, null to store them directly
+     */
+    CardIssuer(ConnectionPool pool, AccountAllocator allocator, WriteQueue writer) {
+        this.pool = pool;
+        this.allocator = allocator;
+        this.writer = writer;
+    }
+
+    /**
+     * Creates a new card without storing it
+     *
+     * @return A Card
+     */
+    Card newCard() {
+        return new Card(allocator);
+    }
+
+    /**
+     * Creates a new card and stores it in a db table. The allocator never
+     * repeats a number, so the table is not searched beforehand; an insert
+     * is only retried if it collides with a card issued before the allocator existed.
+     *
+     * @return The stored card, null if it could not be stored
+     */
+    Card issueCard() {
+        for (int attempt = 0; attempt < MAX_INSERT_ATTEMPTS; attempt++) {
+            Card newCard = newCard();
+
+            boolean isStored = writer == null
+                    ? insertCardInfoToTable(pool, newCard)
+                    : writer.insertCard(newCard).join();
+
+            if (isStored) {
+                issuedCount.increment();
+                return newCard;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates the specified number of new cards and stores them in a db table.
+     * Cards whose number is taken, e.g. by a card issued before the allocator
+     * existed, are issued again under new numbers, up to MAX_INSERT_ATTEMPTS times.
+     *
+     * @param count Number of cards to issue
+     * @return Stream of the issued cards, short of count only if no free numbers were found
+     * @throws IllegalStateException If the cards cannot be stored
+     */
+    Stream<Card> issueCards(int count) {
+        List<Card> issued = new ArrayList<>(count);
+        List<Card> newCards = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            newCards.add(newCard());
+        }
+
+        for (int attempt = 0; attempt < MAX_INSERT_ATTEMPTS && !newCards.isEmpty(); attempt++) {
+            Set<Card> rejected = Collections.newSetFromMap(new IdentityHashMap<>());
+
+            try {
+                rejected.addAll(insertCardsInTable(pool, newCards));
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not store the cards", e);
+            }
+
+            for (Card card : newCards) {
+                if (!rejected.contains(card)) {
+                    issued.add(card);
+                }
+            }
+
+            newCards.clear();
+
+            for (int i = 0; i < rejected.size(); i++) {
+                newCards.add(newCard());
+            }
+        }
+
+        issuedCount.add(issued.size());
+        return issued.stream();
+    }
+
+    /**
+     * Gets the number of cards stored by this issuer
+     *
+     * @return A long
+     */
+    long getIssuedCount() {
+        return issuedCount.sum();
+    }
+}
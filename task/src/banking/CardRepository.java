@@ -0,0 +1,99 @@
+package banking;
+
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This program describes where the bank keeps its cards. The
+ * menus, the async card service and the server only talk to
+ * this interface, so the cards can be kept in SQLite, in memory
+ * or in a journal file, as picked on the command line. Lookups
+ * return right away; balance-changing operations return futures,
+ * since some repositories queue them behind a single writer.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+interface CardRepository extends AutoCloseable {
+
+    /**
+     * Looks up a card by its number and PIN
+     *
+     * @param cardNumber Card number
+     * @param pin Card PIN
+     * @return A Card, null if no card has that number and PIN
+     */
+    Card findCard(long cardNumber, String pin);
+
+    /**
+     * Looks up a card by its number
+     *
+     * @param cardNumber Card number
+     * @return A Card, null if no card has that number
+     */
+    Card findCard(long cardNumber);
+
+    /**
+     * Indicates whether a card with the specified number exists
+     *
+     * @param cardNumber Card number
+     * @return True if card exists, false otherwise
+     */
+    boolean cardExists(long cardNumber);
+
+    /**
+     * Creates a new card and stores it
+     *
+     * @return The stored card, null if it could not be stored
+     */
+    Card issueCard();
+
+    /**
+     * Adds an amount to the balance of a card
+     *
+     * @param cardNumber Card number
+     * @param amount Amount to be added, must be positive
+     * @return Future completed with the new balance, empty if the amount is not positive,
+     *         the card does not exist or the balance would overflow
+     */
+    CompletableFuture<OptionalLong> deposit(long cardNumber, long amount);
+
+    /**
+     * Deletes a card
+     *
+     * @param cardNumber Card number
+     * @return Future completed with true if the card was deleted, false otherwise
+     */
+    CompletableFuture<Boolean> deleteAccount(long cardNumber);
+
+    /**
+     * Transfers an amount between two cards
+     *
+     * @param fromNumber Credit card number from which amount will be withdrawn
+     * @param toNumber Credit card number upon which amount will be deposited
+     * @param amount Amount to be transferred
+     * @return Future completed with the outcome of the transfer
+     */
+    CompletableFuture<TransferResult> transfer(long fromNumber, long toNumber, long amount);
+
+    /**
+     * Gets the number of operations the repository can carry out at the same time,
+     * used to size the executors that call it
+     *
+     * @return Integer value
+     */
+    int getParallelism();
+
+    /**
+     * Gets a summary of the repository's activity
+     *
+     * @return A String
+     */
+    String getStatistics();
+
+    /**
+     * Waits for the operations in progress, then releases the storage
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,296 @@
+package banking;
+
+import banking.Metrics.Operation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static banking.Card.*;
+import static banking.Processor.*;
+
+/**
+ * This program carries out the menu operations written as text
+ * commands, one per line, without any menus. Each command gets
+ * a single reply line starting with 'OK' or 'ERR'. It is shared
+ * by the TCP server and the scripted mode; each connection or
+ * script keeps its own logged-in card in a State, and the time
+ * taken by every command is recorded in the bank's metrics.
+ *
+ * Commands: CREATE, LOGIN [Card Number] [PIN], BALANCE, INCOME [Amount],
+ * TRANSFER [Card Number] [Amount], CLOSE, LOGOUT, STATS, QUIT
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class CommandInterpreter {
+
+    /**
+     * Commands understood by the interpreter
+     */
+    enum Command {
+        CREATE(Operation.COMMAND_CREATE),
+        LOGIN(Operation.COMMAND_LOGIN),
+        BALANCE(Operation.COMMAND_BALANCE),
+        INCOME(Operation.COMMAND_INCOME),
+        TRANSFER(Operation.COMMAND_TRANSFER),
+        CLOSE(Operation.COMMAND_CLOSE),
+        LOGOUT(Operation.COMMAND_LOGOUT),
+        STATS(Operation.COMMAND_STATS),
+        QUIT(Operation.COMMAND_QUIT);
+
+        private final Operation operation;
+
+        Command(Operation operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * Gets the operation the command's latency is recorded under
+         *
+         * @return An Operation
+         */
+        Operation getOperation() {
+            return operation;
+        }
+    }
+
+    private final AsyncCardService service;
+
+    /**
+     * Custom constructor
+     *
+     * @param service Async card service
+     */
+    CommandInterpreter(AsyncCardService service) {
+        this.service = service;
+    }
+
+    /**
+     * Carries out the commands read from a stream until it ends or a QUIT
+     * command, writing one reply line per command. Blank lines and lines
+     * starting with '#' are skipped.
+     *
+     * @param in Source of the commands
+     * @param out Destination of the replies
+     * @param isInteractive Indicates whether to greet the caller and send each reply as soon as it is ready
+     * @throws IOException If the commands cannot be read or the replies cannot be written
+     */
+    void run(BufferedReader in, Writer out, boolean isInteractive) throws IOException {
+        State state = new State();
+        String line;
+
+        if (isInteractive) {
+            out.write("OK Simple Banking System\n");
+            out.flush();
+        }
+
+        while (state.isOpen() && (line = in.readLine()) != null) {
+            line = line.trim();
+
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+
+            out.write(execute(line, state));
+            out.write('\n');
+
+            if (isInteractive) {
+                out.flush();
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Carries out one command line
+     *
+     * @param line Command name followed by its arguments
+     * @param state Logged-in card of the caller, updated by LOGIN, LOGOUT, CLOSE and QUIT
+     * @return Reply line
+     */
+    String execute(String line, State state) {
+        String[] words = line.trim().split("\\s+");
+        Command command = parseCommand(words[0]);
+
+        if (command == null) {
+            return "ERR Unknown command";
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            return execute(command, words, state);
+        } finally {
+            Metrics.record(command.getOperation(), start);
+        }
+    }
+
+    /**
+     * Finds the command with the specified name, ignoring case
+     *
+     * @param name Command name
+     * @return A Command, null if there is no such command
+     */
+    private static Command parseCommand(String name) {
+        for (Command command : Command.values()) {
+            if (command.name().equalsIgnoreCase(name)) {
+                return command;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Carries out a command
+     *
+     * @param command Command to carry out
+     * @param words Command name followed by its arguments
+     * @param state Logged-in card of the caller
+     * @return Reply line
+     */
+    private String execute(Command command, String[] words, State state) {
+        try {
+            switch (command) {
+                case CREATE:
+                    Card newCard = service.issue().join();
+                    return newCard == null ? "ERR Card could not be created"
+                            : "OK " + formatCardNumber(newCard.getCardNumber()) + " " + newCard.getPIN();
+                case LOGIN:
+                    if (words.length != 3) {
+                        return "ERR Usage: LOGIN [Card Number] [PIN]";
+                    }
+                    state.card = service.login(parseCardNumber(words[1]), words[2]).join();
+                    return state.card == null ? "ERR Wrong card number or PIN!" : "OK You have successfully logged in!";
+                case STATS:
+                    return "OK " + getStatistics();
+                case QUIT:
+                    state.isOpen = false;
+                    return "OK Bye!";
+                default:
+                    break;
+            }
+
+            if (state.card == null) {
+                return "ERR You are not logged in!";
+            }
+
+            long cardNumber = state.card.getCardNumber();
+
+            switch (command) {
+                case BALANCE:
+                    Card card = service.find(cardNumber).join();
+                    return card == null ? "ERR Such a card does not exist." : "OK " + card.getBalance();
+                case INCOME:
+                    long income = words.length == 2 ? Money.parse(words[1]) : Money.NOT_AN_AMOUNT;
+
+                    if (income == Money.NOT_AN_AMOUNT) {
+                        return "ERR Income must be an integer!";
+                    } else if (income <= 0) {
+                        return "ERR Income must be a positive amount!";
+                    }
+                    OptionalLong balance = service.deposit(cardNumber, income).join();
+                    return balance.isPresent() ? "OK " + balance.getAsLong() : "ERR Such a card does not exist.";
+                case TRANSFER:
+                    return transfer(cardNumber, words);
+                case CLOSE:
+                    if (!service.closeAccount(cardNumber).join()) {
+                        return "ERR The account could not be closed!";
+                    }
+                    state.card = null;
+                    return "OK The account has been closed!";
+                case LOGOUT:
+                    state.card = null;
+                    return "OK You have successfully logged out!";
+                default:
+                    return "ERR Unknown command";
+            }
+        } catch (CompletionException e) {
+            if (isBusy(e.getCause())) {
+                return "ERR Server is busy, please try again later.";
+            }
+            e.printStackTrace();
+            return "ERR The command could not be carried out!";
+        }
+    }
+
+    /**
+     * Indicates whether an operation failed because the storage was too busy to
+     * start it in time, rather than because it went wrong
+     *
+     * @param cause Exception the operation failed with
+     * @return True if the caller may try again later, false otherwise
+     */
+    private static boolean isBusy(Throwable cause) {
+        return cause instanceof RejectedExecutionException || cause instanceof TimeoutException;
+    }
+
+    /**
+     * Carries out a transfer from the logged-in card
+     *
+     * @param fromNumber Logged-in card number
+     * @param words Command name followed by the target card number and the amount
+     * @return Reply line
+     */
+    private String transfer(long fromNumber, String[] words) {
+        if (words.length != 3) {
+            return "ERR Usage: TRANSFER [Card Number] [Amount]";
+        }
+
+        long toNumber = parseCardNumber(words[1]);
+        long amount = Money.parse(words[2]);
+
+        if (toNumber < 0 || !isCheckSumDigitValid(toNumber)) {
+            return "ERR Probably you made a mistake in the card number. Please try again!";
+        } else if (amount == Money.NOT_AN_AMOUNT) {
+            return "ERR Amount must be an integer!";
+        }
+
+        TransferResult result = service.transfer(fromNumber, toNumber, amount).join();
+
+        return result.isSuccess() ? "OK " + result.getBalance() : "ERR " + result.getStatus().getMessage();
+    }
+
+    /**
+     * Gets the latency of each command carried out so far
+     *
+     * @return A String
+     */
+    String getStatistics() {
+        StringBuilder statistics = new StringBuilder();
+
+        for (Command command : Command.values()) {
+            LatencyHistogram latency = Metrics.getLatency(command.getOperation());
+
+            if (latency.getCount() > 0) {
+                statistics.append(statistics.length() == 0 ? "" : ", ")
+                        .append(command).append(' ').append(latency);
+            }
+        }
+
+        return statistics.length() == 0 ? "No commands" : statistics.toString();
+    }
+
+    /**
+     * State kept for a caller between commands
+     */
+    static class State {
+        private Card card;
+        private boolean isOpen = true;
+
+        /**
+         * Indicates whether the caller has not quit
+         *
+         * @return True if more commands are expected, false otherwise
+         */
+        boolean isOpen() {
+            return isOpen;
+        }
+    }
+}
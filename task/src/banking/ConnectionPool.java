@@ -0,0 +1,361 @@
+package banking;
+
+import org.sqlite.SQLiteDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This program keeps a bounded pool of long-lived connections
+ * to the SQLite database so that every operation does not pay
+ * for opening the database file and warming up its page cache.
+ * Connections are checked for health before being handed out
+ * again and the time callers spend waiting for one is recorded,
+ * as well as how often cached prepared statements are reused.
+ * Every new connection is configured with the pool's storage
+ * profile before it is handed out.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    static final int DEFAULT_POOL_SIZE = 4;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 5_000L;
+    private static final long VALIDATION_INTERVAL_MILLIS = 30_000L;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+
+    private final SQLiteDataSource dataSource;
+    private final StorageProfile profile;
+    private final int maxSize;
+    private final long timeoutMillis;
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong discardedCount = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Custom constructor
+     *
+     * @param dataSource SQLite data source
+     * @param profile Settings applied to every new connection
+     * @param maxSize Maximum number of open connections
+     */
+    ConnectionPool(SQLiteDataSource dataSource, StorageProfile profile, int maxSize) {
+        this(dataSource, profile, maxSize, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Custom constructor
+     *
+     * @param dataSource SQLite data source
+     * @param profile Settings applied to every new connection
+     * @param maxSize Maximum number of open connections
+     * @param timeoutMillis Maximum time to wait for a free connection
+     */
+    ConnectionPool(SQLiteDataSource dataSource, StorageProfile profile, int maxSize, long timeoutMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.dataSource = dataSource;
+        this.profile = profile;
+        this.maxSize = maxSize;
+        this.timeoutMillis = timeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Takes a connection out of the pool, opening a new one if no idle
+     * connection is available and the pool has not reached its size limit.
+     * The connection is returned to the pool when it is closed.
+     *
+     * @return A healthy connection
+     * @throws SQLException If the pool is closed, no connection frees up in time or the database cannot be opened
+     */
+    PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection pooled;
+
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isHealthy(pooled)) {
+                    return pooled.lease();
+                }
+                discard(pooled);
+            }
+
+            return openConnection().lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a new physical connection configured with the storage profile
+     *
+     * @return A PooledConnection
+     * @throws SQLException If the database cannot be opened or configured
+     */
+    private PooledConnection openConnection() throws SQLException {
+        Connection con = dataSource.getConnection();
+
+        try {
+            profile.apply(con);
+        } catch (SQLException e) {
+            con.close();
+            throw e;
+        }
+
+        createdCount.incrementAndGet();
+        return new PooledConnection(this, con);
+    }
+
+    /**
+     * Gets the storage profile applied to the connections
+     *
+     * @return A StorageProfile
+     */
+    StorageProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Puts a connection back into the pool. Any transaction left open
+     * by the borrower is rolled back and auto-commit is restored.
+     *
+     * @param pooled Connection being returned
+     */
+    void release(PooledConnection pooled) {
+        try {
+            Connection con = pooled.getConnection();
+
+            if (closed || con.isClosed()) {
+                discard(pooled);
+                return;
+            }
+
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Indicates whether an idle connection can be handed out again. Connections
+     * that have been idle for a while are validated against the database.
+     *
+     * @param pooled Idle connection
+     * @return True if connection is usable, false otherwise
+     */
+    private boolean isHealthy(PooledConnection pooled) {
+        try {
+            Connection con = pooled.getConnection();
+
+            if (con.isClosed()) {
+                return false;
+            } else if (pooled.getIdleMillis() < VALIDATION_INTERVAL_MILLIS) {
+                return true;
+            }
+
+            return con.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes the physical connection behind a pooled connection
+     *
+     * @param pooled Connection to discard
+     */
+    private void discard(PooledConnection pooled) {
+        discardedCount.incrementAndGet();
+        try {
+            pooled.closePhysical();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Records the time a caller waited for a connection
+     *
+     * @param nanos Wait time in nanoseconds
+     */
+    private void recordWait(long nanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+        Metrics.recordNanos(Metrics.Operation.CONNECTION_WAIT, nanos);
+    }
+
+    /**
+     * Records that a query was served from a connection's statement cache
+     */
+    void recordStatementHit() {
+        statementHits.incrementAndGet();
+    }
+
+    /**
+     * Records that a query had to be prepared because it was not cached
+     */
+    void recordStatementMiss() {
+        statementMisses.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of queries that reused a cached prepared statement
+     *
+     * @return A long
+     */
+    long getStatementHits() {
+        return statementHits.get();
+    }
+
+    /**
+     * Gets the number of queries that had to be prepared
+     *
+     * @return A long
+     */
+    long getStatementMisses() {
+        return statementMisses.get();
+    }
+
+    /**
+     * Gets the maximum number of open connections
+     *
+     * @return Integer value
+     */
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Gets the number of connections currently lent out
+     *
+     * @return Integer value
+     */
+    int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    /**
+     * Gets the number of open connections waiting to be borrowed
+     *
+     * @return Integer value
+     */
+    int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Gets the number of times a connection has been borrowed
+     *
+     * @return A long
+     */
+    long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * Gets the average time callers waited for a connection
+     *
+     * @return Wait time in nanoseconds
+     */
+    long getAverageWaitNanos() {
+        long count = borrowCount.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / count;
+    }
+
+    /**
+     * Gets the longest time a caller waited for a connection
+     *
+     * @return Wait time in nanoseconds
+     */
+    long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /**
+     * Gets the number of callers that gave up waiting for a connection
+     *
+     * @return A long
+     */
+    long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Gets a summary of the pool usage
+     *
+     * @return A String
+     */
+    String getStatistics() {
+        return "Profile: " + profile
+                + ", pool size: " + maxSize
+                + ", active: " + getActiveCount()
+                + ", idle: " + getIdleCount()
+                + ", created: " + createdCount.get()
+                + ", discarded: " + discardedCount.get()
+                + ", borrows: " + getBorrowCount()
+                + ", avg wait: " + TimeUnit.NANOSECONDS.toMicros(getAverageWaitNanos()) + "us"
+                + ", max wait: " + TimeUnit.NANOSECONDS.toMicros(getMaxWaitNanos()) + "us"
+                + ", timeouts: " + getTimeoutCount()
+                + ", statement hits: " + getStatementHits()
+                + ", statement misses: " + getStatementMisses();
+    }
+
+    /**
+     * Closes every idle connection and refuses further borrows.
+     * Connections still lent out are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        PooledConnection pooled;
+
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+}
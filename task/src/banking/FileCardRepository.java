@@ -0,0 +1,309 @@
+package banking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This program keeps the cards in memory and records every
+ * change to them in a journal file, one line per change, so
+ * they survive the program. Lines hold the balances after the
+ * change rather than the amounts, and are written while the
+ * accounts involved are locked, so the lines of each card are
+ * in the order its changes were made. When the journal is
+ * opened, its lines are replayed and, if most of them are out
+ * of date, the journal is rewritten with one line per card.
+ * With the durable profile every line is synced to disk before
+ * the change is made; otherwise syncing is left to the system.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+final class FileCardRepository extends InMemoryCardRepository {
+
+    private static final String SEQUENCE = "SEQUENCE";
+    private static final String CARD = "CARD";
+    private static final String BALANCE = "BALANCE";
+    private static final String MOVE = "MOVE";
+    private static final String DELETE = "DELETE";
+
+    /* The journal is rewritten on opening once it has this many lines more than cards */
+    private static final int COMPACTION_LINES = 100_000;
+
+    private final FileChannel channel;
+    private final boolean isSynced;
+    private boolean isDamaged;
+
+    /**
+     * Custom constructor
+     *
+     * @param contents Cards and account sequence read from the journal
+     * @param channel Journal, opened for appending
+     * @param isSynced Indicates whether every line is synced to disk
+     */
+    private FileCardRepository(Contents contents, FileChannel channel, boolean isSynced) {
+        super(contents.accounts, contents.nextAccount, contents.key);
+        this.channel = channel;
+        this.isSynced = isSynced;
+    }
+
+    /**
+     * Opens the journal of a card file, creating it if it does not exist, and
+     * reads the cards back from it
+     *
+     * @param fileName Database file name, e.g. 'card.s3db'
+     * @param profile Storage settings, DURABLE to sync every line
+     * @return A FileCardRepository, null if the journal could not be read or opened
+     */
+    static FileCardRepository open(String fileName, StorageProfile profile) {
+        Path path = Paths.get(getJournalFileName(fileName));
+
+        try {
+            Contents contents = read(path);
+
+            if (contents.lineCount > contents.accounts.size() + COMPACTION_LINES) {
+                compact(path, contents);
+            }
+
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+            /* Drop a last line cut short by a crash, so the next line starts on its own */
+            channel.truncate(contents.length);
+            channel.position(contents.length);
+
+            return new FileCardRepository(contents, channel, profile == StorageProfile.DURABLE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Gets the journal of a card file, e.g. 'card.journal' for 'card.s3db'
+     *
+     * @param fileName Database file name
+     * @return A String
+     */
+    static String getJournalFileName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return (dot > 0 ? fileName.substring(0, dot) : fileName) + ".journal";
+    }
+
+    /**
+     * Replays the lines of a journal
+     *
+     * @param path Path of the journal
+     * @return Cards and account sequence as of the last complete line
+     * @throws IOException If the journal cannot be read
+     */
+    private static Contents read(Path path) throws IOException {
+        Contents contents = new Contents();
+
+        if (!Files.exists(path)) {
+            return contents;
+        }
+
+        String journal = new String(Files.readAllBytes(path), StandardCharsets.US_ASCII);
+        int end = journal.lastIndexOf('\n') + 1;
+        contents.length = end;
+
+        for (String line : journal.substring(0, end).split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            contents.lineCount++;
+
+            try {
+                replay(contents, line.split(" "));
+            } catch (RuntimeException e) {
+                System.err.println("Skipping unreadable journal line: " + line);
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Applies one journal line
+     *
+     * @param contents Cards and account sequence read so far
+     * @param record Fields of the line
+     */
+    private static void replay(Contents contents, String[] record) {
+        Map<Long, Account> accounts = contents.accounts;
+
+        switch (record[0]) {
+            case SEQUENCE:
+                contents.nextAccount = Math.max(contents.nextAccount, Long.parseLong(record[1]));
+                contents.key = Long.parseLong(record[2]);
+                break;
+            case CARD:
+                accounts.put(Long.parseLong(record[1]), new Account(record[2], Long.parseLong(record[3])));
+                break;
+            case BALANCE:
+                accounts.get(Long.parseLong(record[1])).balance = Long.parseLong(record[2]);
+                break;
+            case MOVE:
+                accounts.get(Long.parseLong(record[1])).balance = Long.parseLong(record[2]);
+                accounts.get(Long.parseLong(record[3])).balance = Long.parseLong(record[4]);
+                break;
+            case DELETE:
+                accounts.remove(Long.parseLong(record[1]));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown journal record: " + record[0]);
+        }
+    }
+
+    /**
+     * Rewrites a journal with one line per card. The new journal is synced under a
+     * temporary name, then moved over the old one, so a crash leaves either of them whole.
+     *
+     * @param path Path of the journal
+     * @param contents Cards and account sequence read from the journal
+     * @throws IOException If the journal cannot be rewritten
+     */
+    private static void compact(Path path, Contents contents) throws IOException {
+        Path temporary = Paths.get(path + ".tmp");
+        StringBuilder journal = new StringBuilder()
+                .append(SEQUENCE).append(' ').append(contents.nextAccount).append(' ').append(contents.key).append('\n');
+
+        contents.accounts.forEach((number, account) -> journal.append(CARD)
+                .append(' ').append(number)
+                .append(' ').append(account.pin)
+                .append(' ').append(account.balance).append('\n'));
+
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out, journal.toString());
+            out.force(false);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        contents.length = journal.length();
+        contents.lineCount = contents.accounts.size() + 1;
+    }
+
+    @Override
+    void cardStored(long cardNumber, String pin, long balance) throws IOException {
+        append(CARD + " " + cardNumber + " " + pin + " " + balance + "\n");
+    }
+
+    @Override
+    void balanceChanged(long cardNumber, long balance) throws IOException {
+        append(BALANCE + " " + cardNumber + " " + balance + "\n");
+    }
+
+    @Override
+    void balancesMoved(long fromNumber, long fromBalance, long toNumber, long toBalance) throws IOException {
+        append(MOVE + " " + fromNumber + " " + fromBalance + " " + toNumber + " " + toBalance + "\n");
+    }
+
+    @Override
+    void cardDeleted(long cardNumber) throws IOException {
+        append(DELETE + " " + cardNumber + "\n");
+    }
+
+    /**
+     * Records the end of the block along with the permutation key, so that
+     * identifiers handed out before a restart are never handed out again
+     *
+     * @param end Value following the last identifier of the block
+     * @throws IllegalStateException If the block cannot be recorded
+     */
+    @Override
+    void sequenceReserved(long end) {
+        try {
+            append(SEQUENCE + " " + end + " " + getKey() + "\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not record account numbers", e);
+        }
+    }
+
+    /**
+     * Writes a line at the end of the journal. If the line cannot be written
+     * whole, the journal is cut back to where the line started, so the lines
+     * written after it are not glued to a partial one. If even that fails,
+     * no further line is written.
+     *
+     * @param line Line to write
+     * @throws IOException If the line cannot be written
+     */
+    private void append(String line) throws IOException {
+        synchronized (channel) {
+            if (isDamaged) {
+                throw new IOException("Journal ends with a partial line");
+            }
+
+            long end = channel.position();
+
+            try {
+                write(channel, line);
+
+                if (isSynced) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                try {
+                    channel.truncate(end);
+                    channel.position(end);
+                } catch (IOException truncateError) {
+                    isDamaged = true;
+                    e.addSuppressed(truncateError);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes text to a file channel
+     *
+     * @param out File channel
+     * @param text Text to write
+     * @throws IOException If the text cannot be written
+     */
+    private static void write(FileChannel out, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Syncs and closes the journal
+     */
+    @Override
+    public void close() {
+        try {
+            synchronized (channel) {
+                channel.force(false);
+                channel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Cards and account sequence read from a journal
+     */
+    private static final class Contents {
+        private final ConcurrentMap<Long, Account> accounts = new ConcurrentHashMap<>();
+        private long nextAccount;
+        private long key = ThreadLocalRandom.current().nextLong();
+        private long length;
+        private int lineCount;
+    }
+}
@@ -0,0 +1,336 @@
+package banking;
+
+import java.io.IOException;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This program keeps the cards in a concurrent map in memory,
+ * for tests and benchmarks that should not wait on a database.
+ * Every account has its own lock, so operations on different
+ * cards never wait on each other; a transfer locks both of its
+ * accounts in card number order so two opposite transfers
+ * cannot deadlock. Balance-changing operations complete before
+ * they return. Nothing is kept once the program exits, unless
+ * a subclass records the changes as they are made.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class InMemoryCardRepository implements CardRepository {
+
+    private static final int MAX_INSERT_ATTEMPTS = 3;
+
+    private final ConcurrentMap<Long, Account> accounts;
+    private final AccountAllocator allocator;
+    private final long key;
+    private final LongAdder depositCount = new LongAdder();
+    private final LongAdder transferCount = new LongAdder();
+
+    /**
+     * Default constructor
+     */
+    InMemoryCardRepository() {
+        this(new ConcurrentHashMap<>(), 0, ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Custom constructor
+     *
+     * @param accounts Accounts already stored, by card number
+     * @param nextAccount First value of the account sequence
+     * @param key Permutation key of the account sequence
+     */
+    InMemoryCardRepository(ConcurrentMap<Long, Account> accounts, long nextAccount, long key) {
+        this.accounts = accounts;
+        this.key = key;
+        this.allocator = new AccountAllocator(nextAccount, key, this::sequenceReserved);
+    }
+
+    /**
+     * Gets the permutation key of the account sequence
+     *
+     * @return A long
+     */
+    long getKey() {
+        return key;
+    }
+
+    @Override
+    public Card findCard(long cardNumber, String pin) {
+        Account account = accounts.get(cardNumber);
+
+        if (account == null || !account.pin.equals(pin)) {
+            return null;
+        }
+        return toCard(cardNumber, account);
+    }
+
+    @Override
+    public Card findCard(long cardNumber) {
+        Account account = accounts.get(cardNumber);
+        return account == null ? null : toCard(cardNumber, account);
+    }
+
+    /**
+     * Reads a card off its account
+     *
+     * @param cardNumber Card number
+     * @param account Account of the card
+     * @return A Card, null if the account was closed meanwhile
+     */
+    private static Card toCard(long cardNumber, Account account) {
+        synchronized (account) {
+            return account.isClosed ? null : new Card(cardNumber, account.pin, account.balance);
+        }
+    }
+
+    @Override
+    public boolean cardExists(long cardNumber) {
+        return accounts.containsKey(cardNumber);
+    }
+
+    /**
+     * Creates a new card and stores it. The account stays locked until the card
+     * is recorded, so no other operation can change it before then.
+     *
+     * @return The stored card, null if it could not be stored
+     */
+    @Override
+    public Card issueCard() {
+        for (int attempt = 0; attempt < MAX_INSERT_ATTEMPTS; attempt++) {
+            Card newCard = new Card(allocator);
+            Account account = new Account(newCard.getPIN(), newCard.getBalance());
+
+            synchronized (account) {
+                if (accounts.putIfAbsent(newCard.getCardNumber(), account) != null) {
+                    continue;
+                }
+
+                try {
+                    cardStored(newCard.getCardNumber(), account.pin, account.balance);
+                    return newCard;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    account.isClosed = true;
+                    accounts.remove(newCard.getCardNumber(), account);
+                    return null;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<OptionalLong> deposit(long cardNumber, long amount) {
+        Account account = amount > 0 ? accounts.get(cardNumber) : null;
+
+        if (account == null) {
+            return CompletableFuture.completedFuture(OptionalLong.empty());
+        }
+
+        synchronized (account) {
+            if (account.isClosed || account.balance > Money.highestBalanceFor(amount)) {
+                return CompletableFuture.completedFuture(OptionalLong.empty());
+            }
+
+            long balance = account.balance + amount;
+
+            try {
+                balanceChanged(cardNumber, balance);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return CompletableFuture.completedFuture(OptionalLong.empty());
+            }
+
+            account.balance = balance;
+            depositCount.increment();
+            return CompletableFuture.completedFuture(OptionalLong.of(balance));
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteAccount(long cardNumber) {
+        Account account = accounts.get(cardNumber);
+
+        if (account == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        synchronized (account) {
+            if (account.isClosed) {
+                return CompletableFuture.completedFuture(false);
+            }
+
+            try {
+                cardDeleted(cardNumber);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return CompletableFuture.completedFuture(false);
+            }
+
+            account.isClosed = true;
+            accounts.remove(cardNumber, account);
+            return CompletableFuture.completedFuture(true);
+        }
+    }
+
+    @Override
+    public CompletableFuture<TransferResult> transfer(long fromNumber, long toNumber, long amount) {
+        return CompletableFuture.completedFuture(moveBalance(fromNumber, toNumber, amount));
+    }
+
+    /**
+     * Moves an amount between two accounts, checked in the same order as the
+     * database does: the receiver first, then the sender's funds
+     *
+     * @param fromNumber Credit card number from which amount will be withdrawn
+     * @param toNumber Credit card number upon which amount will be deposited
+     * @param amount Amount to be transferred
+     * @return Outcome of the transfer with the sender's new balance if it succeeded
+     */
+    private TransferResult moveBalance(long fromNumber, long toNumber, long amount) {
+        if (fromNumber == toNumber) {
+            return TransferResult.SAME_ACCOUNT;
+        } else if (amount <= 0) {
+            return TransferResult.INVALID_AMOUNT;
+        }
+
+        Account source = accounts.get(fromNumber);
+        Account target = accounts.get(toNumber);
+
+        if (target == null) {
+            return TransferResult.UNKNOWN_TARGET;
+        } else if (source == null) {
+            return TransferResult.INSUFFICIENT_FUNDS;
+        }
+
+        Account first = fromNumber < toNumber ? source : target;
+        Account second = fromNumber < toNumber ? target : source;
+
+        synchronized (first) {
+            synchronized (second) {
+                if (target.isClosed) {
+                    return TransferResult.UNKNOWN_TARGET;
+                } else if (target.balance > Money.highestBalanceFor(amount)) {
+                    return TransferResult.BALANCE_OVERFLOW;
+                } else if (source.isClosed || source.balance < amount) {
+                    return TransferResult.INSUFFICIENT_FUNDS;
+                }
+
+                long fromBalance = source.balance - amount;
+                long toBalance = target.balance + amount;
+
+                try {
+                    balancesMoved(fromNumber, fromBalance, toNumber, toBalance);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return TransferResult.FAILED;
+                }
+
+                source.balance = fromBalance;
+                target.balance = toBalance;
+                transferCount.increment();
+                return TransferResult.success(fromBalance);
+            }
+        }
+    }
+
+    /**
+     * Called with the account locked before a new card is stored
+     *
+     * @param cardNumber Card number
+     * @param pin Card PIN
+     * @param balance Starting balance
+     * @throws IOException If the card cannot be recorded, in which case it is not stored
+     */
+    void cardStored(long cardNumber, String pin, long balance) throws IOException {
+    }
+
+    /**
+     * Called with the account locked before its balance changes
+     *
+     * @param cardNumber Card number
+     * @param balance New balance
+     * @throws IOException If the change cannot be recorded, in which case it is not made
+     */
+    void balanceChanged(long cardNumber, long balance) throws IOException {
+    }
+
+    /**
+     * Called with both accounts locked before a transfer changes their balances
+     *
+     * @param fromNumber Card number of the sender
+     * @param fromBalance Sender's new balance
+     * @param toNumber Card number of the receiver
+     * @param toBalance Receiver's new balance
+     * @throws IOException If the transfer cannot be recorded, in which case it is not made
+     */
+    void balancesMoved(long fromNumber, long fromBalance, long toNumber, long toBalance) throws IOException {
+    }
+
+    /**
+     * Called with the account locked before it is deleted
+     *
+     * @param cardNumber Card number
+     * @throws IOException If the deletion cannot be recorded, in which case it is not made
+     */
+    void cardDeleted(long cardNumber) throws IOException {
+    }
+
+    /**
+     * Called before the identifiers of a new block of the account sequence are handed out
+     *
+     * @param end Value following the last identifier of the block
+     */
+    void sequenceReserved(long end) {
+    }
+
+    /**
+     * Gets the number of cores, since operations only wait on the accounts they change
+     *
+     * @return Integer value
+     */
+    @Override
+    public int getParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Gets the number of cards, deposits and transfers
+     *
+     * @return A String
+     */
+    @Override
+    public String getStatistics() {
+        return "Cards: " + accounts.size()
+                + ", deposits: " + depositCount.sum()
+                + ", transfers: " + transferCount.sum();
+    }
+
+    /**
+     * Nothing to release, since the cards only live in memory
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Stored state of one card, guarded by its own monitor
+     */
+    static final class Account {
+        final String pin;
+        long balance;
+        boolean isClosed;
+
+        Account(String pin, long balance) {
+            this.pin = pin;
+            this.balance = balance;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package banking;
+
+/**
+ * This program feeds a session a fixed list of input tokens and
+ * keeps everything it writes in memory. It lets many simulated
+ * customers run the menu inside one program, without processes,
+ * pipes or sockets in between.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class InMemorySessionIO implements SessionIO {
+
+    private final String[] tokens;
+    private final StringBuilder output = new StringBuilder();
+    private int position;
+
+    /**
+     * Custom constructor
+     *
+     * @param input Everything the customer will enter, separated by whitespace
+     */
+    InMemorySessionIO(String input) {
+        String trimmed = input.trim();
+        this.tokens = trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+    }
+
+    @Override
+    public String readToken() {
+        return position < tokens.length ? tokens[position++] : null;
+    }
+
+    @Override
+    public void print(String text) {
+        output.append(text);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Gets everything the session has written
+     *
+     * @return A String
+     */
+    String getOutput() {
+        return output.toString();
+    }
+}
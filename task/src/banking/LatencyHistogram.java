@@ -0,0 +1,156 @@
+package banking;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This program counts durations in buckets whose width grows
+ * with the duration, so that any percentile can be read back
+ * within about three percent of the real value. Buckets are
+ * allocated once, and recording a duration only increments
+ * counters, so it can be done by any number of threads without
+ * allocating or locking.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+final class LatencyHistogram {
+
+    /* Each power of two is split into 2^SUB_BUCKET_BITS buckets */
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Counts one duration
+     *
+     * @param nanos Duration in nanoseconds
+     */
+    void record(long nanos) {
+        long value = Math.max(nanos, 0);
+
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+    }
+
+    /**
+     * Finds the bucket a duration is counted in
+     *
+     * @param value Duration in nanoseconds
+     * @return Integer value
+     */
+    private static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * Gets the largest duration counted in a bucket
+     *
+     * @param bucket Bucket index
+     * @return Duration in nanoseconds
+     */
+    private static long highestValueOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long subBucket = bucket % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+        return (subBucket << shift) + (1L << shift) - 1;
+    }
+
+    /**
+     * Gets the duration below which the specified percentage of the durations fall
+     *
+     * @param percentile Percentage, e.g. 99.9
+     * @return Duration in nanoseconds, 0 if nothing was recorded
+     */
+    long getPercentile(double percentile) {
+        long total = getCount();
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts.get(bucket);
+
+            if (seen >= target) {
+                return Math.min(highestValueOf(bucket), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Gets the number of durations recorded
+     *
+     * @return A long
+     */
+    long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the longest duration recorded
+     *
+     * @return Duration in nanoseconds
+     */
+    long getMax() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Gets the average duration recorded
+     *
+     * @return Duration in nanoseconds
+     */
+    long getMean() {
+        long total = getCount();
+        return total == 0 ? 0 : totalNanos.sum() / total;
+    }
+
+    /**
+     * Gets a summary of the count and the main percentiles
+     *
+     * @return A String
+     */
+    @Override
+    public String toString() {
+        return "count=" + getCount()
+                + " p50=" + micros(getPercentile(50)) + "us"
+                + " p99=" + micros(getPercentile(99)) + "us"
+                + " p999=" + micros(getPercentile(99.9)) + "us"
+                + " max=" + micros(getMax()) + "us";
+    }
+
+    /**
+     * Converts a duration to microseconds
+     *
+     * @param nanos Duration in nanoseconds
+     * @return A long
+     */
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,185 @@
+package banking;
+
+import java.util.stream.LongStream;
+
+/**
+ * This program computes and verifies Luhn check digits. It
+ * works directly on character sequences and on card numbers
+ * encoded as a long, and it creates no objects while doing so,
+ * which keeps the login and transfer paths free of garbage.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+final class Luhn {
+
+    /* Value a digit contributes to the sum once it has been doubled */
+    private static final int[] DOUBLED = {0, 2, 4, 6, 8, 1, 3, 5, 7, 9};
+
+    private Luhn() {
+    }
+
+    /**
+     * Computes the check digit to be appended to the specified digits
+     *
+     * @param payload Card number without its check digit
+     * @return Check digit, or -1 if the payload is empty or contains a non-digit
+     */
+    static int checkDigit(CharSequence payload) {
+        return checkDigit(payload, payload.length());
+    }
+
+    /**
+     * Computes the check digit for the leading digits of a sequence, which
+     * avoids cutting the check digit off a full card number with a substring
+     *
+     * @param digits Sequence that starts with the card number without its check digit
+     * @param length Number of leading characters that make up the payload
+     * @return Check digit, or -1 if the payload is empty or contains a non-digit
+     */
+    static int checkDigit(CharSequence digits, int length) {
+        int sum = sum(digits, length, true);
+
+        return sum < 0 ? -1 : (10 - sum % 10) % 10;
+    }
+
+    /**
+     * Computes the check digit to be appended to the specified digits
+     *
+     * @param payload Card number without its check digit
+     * @return Check digit
+     */
+    static int checkDigit(long payload) {
+        return (10 - sum(payload, true) % 10) % 10;
+    }
+
+    /**
+     * Indicates whether the last digit of the card number is its correct check digit
+     *
+     * @param cardNumber Card number including its check digit
+     * @return True if card number is valid, false otherwise
+     */
+    static boolean isValid(CharSequence cardNumber) {
+        if (cardNumber.length() < 2) {
+            return false;
+        }
+
+        int sum = sum(cardNumber, cardNumber.length(), false);
+
+        return sum >= 0 && sum % 10 == 0;
+    }
+
+    /**
+     * Indicates whether the last digit of the card number is its correct check digit
+     *
+     * @param cardNumber Card number including its check digit
+     * @return True if card number is valid, false otherwise
+     */
+    static boolean isValid(long cardNumber) {
+        return cardNumber >= 10 && sum(cardNumber, false) % 10 == 0;
+    }
+
+    /**
+     * Validates every card number in the array
+     *
+     * @param cardNumbers Card numbers including their check digits
+     * @param results Receives true at each index whose card number is valid, false otherwise
+     * @return Number of valid card numbers
+     */
+    static int validate(long[] cardNumbers, boolean[] results) {
+        int valid = 0;
+
+        for (int i = 0; i < cardNumbers.length; i++) {
+            results[i] = isValid(cardNumbers[i]);
+            if (results[i]) {
+                valid++;
+            }
+        }
+
+        return valid;
+    }
+
+    /**
+     * Validates every card number in the array
+     *
+     * @param cardNumbers Card numbers including their check digits
+     * @param results Receives true at each index whose card number is valid, false otherwise
+     * @return Number of valid card numbers
+     */
+    static int validate(CharSequence[] cardNumbers, boolean[] results) {
+        int valid = 0;
+
+        for (int i = 0; i < cardNumbers.length; i++) {
+            results[i] = isValid(cardNumbers[i]);
+            if (results[i]) {
+                valid++;
+            }
+        }
+
+        return valid;
+    }
+
+    /**
+     * Keeps only the valid card numbers of a stream
+     *
+     * @param cardNumbers Card numbers including their check digits
+     * @return Stream of the valid card numbers
+     */
+    static LongStream filterValid(LongStream cardNumbers) {
+        return cardNumbers.filter(Luhn::isValid);
+    }
+
+    /**
+     * Adds up the digits of a number the Luhn way, doubling every second
+     * digit counting from the right
+     *
+     * @param digits Digits to add up
+     * @param length Number of leading characters to use
+     * @param doubleLast Indicates whether the rightmost digit is doubled
+     * @return Sum of the digits, or -1 if a character is not a digit or there are none
+     */
+    private static int sum(CharSequence digits, int length, boolean doubleLast) {
+        if (length == 0) {
+            return -1;
+        }
+
+        int sum = 0;
+        boolean isDoubled = doubleLast;
+
+        for (int i = length - 1; i >= 0; i--) {
+            int digit = digits.charAt(i) - '0';
+
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+
+            sum += isDoubled ? DOUBLED[digit] : digit;
+            isDoubled = !isDoubled;
+        }
+
+        return sum;
+    }
+
+    /**
+     * Adds up the digits of a number the Luhn way, doubling every second
+     * digit counting from the right
+     *
+     * @param digits Non-negative number
+     * @param doubleLast Indicates whether the rightmost digit is doubled
+     * @return Sum of the digits
+     */
+    private static int sum(long digits, boolean doubleLast) {
+        int sum = 0;
+        boolean isDoubled = doubleLast;
+
+        while (digits > 0) {
+            int digit = (int) (digits % 10);
+
+            sum += isDoubled ? DOUBLED[digit] : digit;
+            isDoubled = !isDoubled;
+            digits /= 10;
+        }
+
+        return sum;
+    }
+}
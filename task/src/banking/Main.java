@@ -1,14 +1,16 @@
 package banking;
 
-import org.sqlite.SQLiteDataSource;
-
-import java.sql.Connection;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.Scanner;
-
-import static banking.Card.*;
-import static banking.Processor.*;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
 
 /**
  * This program simulates a simple banking system that
@@ -29,266 +31,242 @@ public class Main {
      */
     public static void main(String[] args) {
 
-        int input;
-
-        String url = "jdbc:sqlite:" + args[1];
-
-        SQLiteDataSource dataSource = new SQLiteDataSource();
-        dataSource.setUrl(url);
-
-        boolean hasValidConnection = checkDatabaseTables(dataSource);
+        String fileName = getArgument(args, "-fileName", args[1]);
+        int poolSize = Integer.parseInt(getArgument(args, "-poolSize",
+                String.valueOf(ConnectionPool.DEFAULT_POOL_SIZE)));
+        StorageProfile profile = StorageProfile.fromName(getArgument(args, "-profile",
+                StorageProfile.BALANCED.toString()));
+        int shardCount = Integer.parseInt(getArgument(args, "-shards", "1"));
+        StorageBackend backend = StorageBackend.fromName(getArgument(args, "-storage",
+                StorageBackend.SQLITE.toString()));
+        String metricsInterval = getArgument(args, "-metricsInterval", null);
+
+        if (metricsInterval != null && Long.parseLong(metricsInterval) < 1) {
+            throw new IllegalArgumentException("Metrics interval must be at least one second: " + metricsInterval);
+        }
 
-        if (!hasValidConnection) {
+        RetryPolicy policy = new RetryPolicy(
+                Integer.parseInt(getArgument(args, "-retryAttempts",
+                        String.valueOf(RetryPolicy.DEFAULT_MAX_ATTEMPTS))),
+                Long.parseLong(getArgument(args, "-retryBaseDelayMillis",
+                        String.valueOf(RetryPolicy.DEFAULT_BASE_DELAY_MILLIS))),
+                Long.parseLong(getArgument(args, "-retryMaxDelayMillis",
+                        String.valueOf(RetryPolicy.DEFAULT_MAX_DELAY_MILLIS))),
+                Long.parseLong(getArgument(args, "-retryDeadlineMillis",
+                        String.valueOf(RetryPolicy.DEFAULT_DEADLINE_MILLIS))),
+                Integer.parseInt(getArgument(args, "-busyTimeoutMillis",
+                        String.valueOf(RetryPolicy.DEFAULT_BUSY_TIMEOUT_MILLIS))));
+
+        CardRepository store = backend.open(fileName, profile, poolSize, shardCount, policy);
+
+        if (store == null) {
             System.out.print("Connection to database or table was not successful!");
             System.exit(-1);
         }
 
-        do {
-            displayMainMenu();
-            do {
-                input = getValidUserInput();
-            } while(!isWithinRange(input, getExitNumOption(), getNumMenuOptions()));
-
-            if (input != getExitNumOption()) {System.out.print("\n");}
-
-            switch (input) {
-                case 1:
-                    generateNewCard(dataSource, true);
-                    break;
-                case 2:
-                    input = handleUserLogin(dataSource);
-                    break;
-            }
-            System.out.print("\n");
-        } while (input != getExitNumOption());
+        Metrics.registerMBean();
 
-        displayExitMsg();
-    }
+        if (metricsInterval != null) {
+            Metrics.startReporter(Long.parseLong(metricsInterval), System.err);
+        }
 
-    /**
-     * Handles user login process by verifying login
-     * information and displaying sub-menu
-     */
-    public static int handleUserLogin(SQLiteDataSource dataSource) {
-        int input = getNumMenuOptions();
-
-        String prompt = "Enter your card number:";
-        String cardNumber = getUserInput(prompt);
-        prompt = "Enter your PIN:";
-        String pin = getUserInput(prompt);
-        Card card = findCard(dataSource, cardNumber, pin);
-
-        String amount;
-
-        System.out.print("\n");
-
-        if (card != null) {
-            System.out.println("You have successfully logged in!");
-
-            do {
-                System.out.print("\n");
-                displaySubMenu();
-
-                do {
-                    input = getValidUserInput();
-                } while(!isWithinRange(input, getExitNumOption(), getNumSubMenuOptions()));
-
-                if (input != getExitNumOption()) {System.out.print("\n");}
-
-                switch (input) {
-                    case 1:
-                        card.displayBalance();
-                        break;
-                    case 2:
-                        prompt = "Enter income:";
-                        amount = getUserInput(prompt);
-                        System.out.print("\n");
-
-                        if (isInteger(amount)) {
-                            if (card.addIncome(Integer.parseInt(amount), dataSource)) {
-                                System.out.println("Income was added!");
-                            }
-                        } else{
-                            System.out.println("Income must be an integer!");
-                        }
-                        break;
-                    case 3:
-                        prompt = "Enter card number:";
-                        cardNumber = getUserInput(prompt);
-
-                        boolean isCheckSumDigitValid = isCheckSumDigitValid(cardNumber);
-
-                        if (isCheckSumDigitValid) {
-                            Card otherCard = findCard(dataSource, cardNumber);
-
-                            if (otherCard == null) {
-                                System.out.println("Such a card does not exist.");
-                            } else if (otherCard.getCardNumber() == card.getCardNumber()) {
-                                System.out.println("You can't transfer money to the same account!");
-                            } else{
-                                prompt = "Enter how much money you want to transfer:";
-                                amount = getUserInput(prompt);
-
-                                if (isInteger(amount)) {
-                                    if (Integer.parseInt(amount) > card.getBalance()) {
-                                        System.out.println("Not enough money!");
-                                    } else if (card.transferBalanceTo(Integer.parseInt(amount), otherCard, dataSource)) {
-                                        System.out.println("Success!");
-                                    }
-                                } else{
-                                    System.out.println("Income must be an integer!");
-                                }
-                            }
-                        } else {
-                            System.out.println("Probably you made a mistake in the card number. Please try again!");
-                        }
-                        break;
-                    case 4:
-                        deleteAccount(dataSource, card.getCardNumber());
-                        card = null;
-                        System.out.println("The account has been closed!");
-                        break;
-                    case 5:
-                        System.out.println("You have successfully logged out!");
-                        break;
-                }
-            } while (input != getDelNumOption() & input != getNumSubMenuOptions() & input != getExitNumOption());
-        } else {
-            System.out.println("Wrong card number or PIN!");
+        String sampleRate = getArgument(args, "-traceSql", null);
+        String slowQueryMillis = getArgument(args, "-slowQueryMillis", null);
+
+        if (sampleRate != null || slowQueryMillis != null) {
+            startSqlTracing(sampleRate == null ? 0 : Double.parseDouble(sampleRate),
+                    slowQueryMillis == null ? SqlTracer.DEFAULT_SLOW_QUERY_MILLIS : Long.parseLong(slowQueryMillis),
+                    getArgument(args, "-traceFile", null));
         }
 
-        return input;
-    }
+        String transferFile = getArgument(args, "-transferFile", null);
 
-    /**
-     * Display main menu to user
-     */
-    public static void displayMainMenu() {
-        System.out.print("1. Create an account\n" +
-                "2. Log into account\n" +
-                "0. Exit\n>");
-    }
+        if (transferFile != null) {
+            int chunkSize = Integer.parseInt(getArgument(args, "-chunkSize",
+                    String.valueOf(BatchTransferProcessor.DEFAULT_CHUNK_SIZE)));
+            boolean isProcessed = false;
 
-    /**
-     * Display sub menu to user after successful log in attempt
-     */
-    public static void displaySubMenu() {
-        System.out.print("1. Balance\n" +
-                "2. Add income\n" +
-                "3. Do transfer\n" +
-                "4. Close account\n" +
-                "5. Log out\n" +
-                "0. Exit\n>");
-    }
+            if (!(store instanceof ShardedStore) || ((ShardedStore) store).getShardCount() > 1) {
+                System.err.println("Transfer files can only be applied to a single SQLite database file");
+            } else {
+                isProcessed = processTransferFile(((ShardedStore) store).getPool(0), transferFile,
+                        getArgument(args, "-reportFile", null), chunkSize, policy);
+            }
+            store.close();
+            System.exit(isProcessed ? 0 : -1);
+        }
 
-    /**
-     * Prompts user to enter an integer
-     *
-     * @return Integer value
-     */
-    public static int getValidUserInput() {
-        Scanner scan = new Scanner(System.in);
-        String input = scan.next();
+        String script = getArgument(args, "-script", null);
 
-        while (!isInteger(input)) {
-            System.out.print("Invalid input!\n>");
-            input = scan.next();
+        if (script != null) {
+            boolean isCompleted = runScript(store, script, getArgument(args, "-output", null));
+            store.close();
+            System.exit(isCompleted ? 0 : -1);
         }
 
-        return Integer.parseInt(input);
-    }
+        String port = getArgument(args, "-port", null);
 
-    /**
-     * Gets number of options in main menu
-     *
-     * @return Integer value
-     */
-    public static int getNumMenuOptions() {
-        return 2;
-    }
+        if (port != null) {
+            int maxSessions = Integer.parseInt(getArgument(args, "-maxSessions",
+                    String.valueOf(BankServer.DEFAULT_MAX_SESSIONS)));
+            int maxInFlight = Integer.parseInt(getArgument(args, "-maxInFlight",
+                    String.valueOf(AsyncCardService.DEFAULT_MAX_IN_FLIGHT)));
+            runServer(store, Integer.parseInt(port), maxSessions, maxInFlight,
+                    "menu".equals(getArgument(args, "-protocol", "commands")));
+            System.exit(0);
+        }
 
-    /**
-     * Gets the number of options in second menu
-     *
-     * @return Integer value
-     */
-    public static int getNumSubMenuOptions() {
-        return 5;
-    }
+        try (StreamSessionIO console = StreamSessionIO.console()) {
+            new MenuSession(console, store).run();
+        }
 
-    /**
-     * Gets the integer associated with the 'exit' command
-     *
-     * @return 0
-     */
-    public static int getExitNumOption() {
-        return 0;
+        store.close();
     }
 
     /**
-     * Gets the integer associated with the option to delete the account
+     * Starts tracing the database statements
      *
-     * @return 4
+     * @param sampleRate Share of the statements written to the trace log
+     * @param slowQueryMillis Duration from which a statement is logged as slow
+     * @param traceFile Path of the trace log, null to write it to the error stream
      */
-    public static int getDelNumOption() {
-        return 4;
+    static void startSqlTracing(double sampleRate, long slowQueryMillis, String traceFile) {
+        PrintStream log = System.err;
+
+        if (traceFile != null) {
+            try {
+                log = new PrintStream(Files.newOutputStream(Paths.get(traceFile), StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND), true, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        SqlTracer.enable(sampleRate, slowQueryMillis, log);
     }
 
     /**
-     * Indicates whether user input is valid
+     * Applies every transfer listed in a transfer file and reports the result of each one
      *
-     * @param input User input
-     * @return Boolean
+     * @param pool Database connection pool
+     * @param transferFile Path of the file with one 'from,to,amount,reference' transfer per line
+     * @param reportFile Path of the result report, null to print it to the console
+     * @param chunkSize Number of transfers committed together
+     * @param policy Retry policy for chunks that find the database busy
+     * @return True if the whole file was processed, false otherwise
      */
-    public static boolean isWithinRange(int input, int start, int end) {
-        if (input < start | input > end) {
-            System.out.print("Invalid input!\n>");
+    static boolean processTransferFile(ConnectionPool pool, String transferFile, String reportFile, int chunkSize,
+                                       RetryPolicy policy) {
+        BatchTransferProcessor processor = new BatchTransferProcessor(pool, policy, chunkSize);
+
+        try (BufferedReader input = Files.newBufferedReader(Paths.get(transferFile));
+             Writer report = reportFile == null
+                     ? new BufferedWriter(new OutputStreamWriter(System.out))
+                     : Files.newBufferedWriter(Paths.get(reportFile))) {
+            processor.process(input, report);
+        } catch (IOException e) {
+            e.printStackTrace();
             return false;
+        } finally {
+            System.err.println(processor.getStatistics());
         }
         return true;
     }
 
     /**
-     * Display exit message
+     * Carries out the commands of a script without displaying any menu,
+     * reading the script through one buffered reader and writing one reply
+     * line per command through one buffered writer. Blank lines and lines
+     * starting with '#' are skipped.
+     *
+     * @param store Card storage
+     * @param script Path of the script, '-' to read it from the console
+     * @param outputFile Path of the replies, null to print them to the console
+     * @return True if the whole script was read, false otherwise
      */
-    public static void displayExitMsg() {
-        System.out.print("Bye!");
+    static boolean runScript(CardRepository store, String script, String outputFile) {
+        try (AsyncCardService service = new AsyncCardService(store, AsyncCardService.newExecutor("fixed", 1));
+             BufferedReader input = "-".equals(script)
+                     ? new BufferedReader(new InputStreamReader(System.in))
+                     : Files.newBufferedReader(Paths.get(script));
+             Writer output = outputFile == null
+                     ? new BufferedWriter(new OutputStreamWriter(System.out))
+                     : Files.newBufferedWriter(Paths.get(outputFile))) {
+            CommandInterpreter interpreter = new CommandInterpreter(service);
+
+            interpreter.run(input, output, false);
+            System.err.println(interpreter.getStatistics());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
     }
 
     /**
-     * Establishes connection to SQLite database and checks status of required tables
+     * Serves the customers over TCP until the program is stopped, either with
+     * text commands or with the same menus as the console. The server statistics
+     * are printed and the storage is closed on the way out.
      *
-     * @param dataSource SQLite data source
-     * @return True if connection is successful, false otherwise
+     * @param store Card storage
+     * @param port Port to listen on
+     * @param maxSessions Maximum number of simultaneous sessions
+     * @param maxInFlight Maximum number of database operations in flight
+     * @param isMenu Indicates whether sessions get the console menus instead of text commands
      */
-    public static boolean checkDatabaseTables(SQLiteDataSource dataSource) {
-        try (Connection con = dataSource.getConnection()) {
-            try (Statement statement = con.createStatement()) {
-                String createSQL = "CREATE TABLE IF NOT EXISTS card ("
-                            + "id INTEGER PRIMARY KEY AUTOINCREMENT, "
-                            + "number TEXT, "
-                            + "pin TEXT, "
-                            + "balance INTEGER DEFAULT 0);";
-                statement.executeUpdate(createSQL);
-                return true;
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        } catch (SQLException e) {
+    static void runServer(CardRepository store, int port, int maxSessions, int maxInFlight, boolean isMenu) {
+        AsyncCardService service = new AsyncCardService(store,
+                VirtualThreads.newExecutor(store.getParallelism()), maxInFlight,
+                AsyncCardService.DEFAULT_ADMISSION_TIMEOUT_MILLIS);
+        CommandInterpreter interpreter = new CommandInterpreter(service);
+
+        BankServer.SessionHandler handler = isMenu
+                ? socket -> {
+                    try (SocketSessionIO io = new SocketSessionIO(socket)) {
+                        new MenuSession(io, store).run();
+                    }
+                }
+                : socket -> interpreter.run(
+                        new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)),
+                        new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)),
+                        true);
+        BankServer server;
+
+        try {
+            server = new BankServer(port, maxSessions, handler);
+        } catch (IOException e) {
             e.printStackTrace();
+            service.close();
+            return;
         }
-        return false;
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            System.out.println(server.getStatistics() + ", " + interpreter.getStatistics()
+                    + ", " + store.getStatistics());
+            service.close();
+            store.close();
+        }));
+
+        System.out.println("Listening on localhost:" + server.getPort());
+        server.serve();
     }
 
     /**
-     * Takes in user input
+     * Gets the value that follows the specified option in the command line arguments
      *
-     * @param prompt Text to display
-     * @return Next token as entered by user
+     * @param args Terminal passed-down arguments
+     * @param name Option name, e.g. '-fileName'
+     * @param defaultValue Value to return if the option is not present
+     * @return A String
      */
-    static String getUserInput(String prompt) {
-        System.out.print(prompt + "\n>");
-        Scanner scanner = new Scanner(System.in);
-        return scanner.next();
+    static String getArgument(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (name.equals(args[i])) {
+                return args[i + 1];
+            }
+        }
+
+        return defaultValue;
     }
-}
\ No newline at end of file
+}
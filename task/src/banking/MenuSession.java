@@ -0,0 +1,360 @@
+package banking;
+
+import banking.Metrics.Operation;
+
+import static banking.Card.*;
+import static banking.Processor.*;
+
+/**
+ * This program runs the customer menus of one session. The
+ * session moves between the main menu, the account menu of a
+ * logged-in card and the end of the session, handling one menu
+ * choice per step. It only talks to the customer through a
+ * SessionIO, so the same menus serve the console, a socket or
+ * a simulated customer in memory. Each command is timed in
+ * the metrics from the customer's last answer, so the time the
+ * customer takes to type is not counted.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class MenuSession {
+
+    /**
+     * Screens a session can be on
+     */
+    enum State {
+        MAIN_MENU,
+        ACCOUNT_MENU,
+        EXITED
+    }
+
+    private static final int NUM_MENU_OPTIONS = 2;
+    private static final int NUM_SUB_MENU_OPTIONS = 5;
+    private static final int EXIT_OPTION = 0;
+    private static final int NO_INPUT = -1;
+
+    private final SessionIO io;
+    private final CardRepository store;
+
+    private State state = State.MAIN_MENU;
+    private Card card;
+
+    /**
+     * Custom constructor
+     *
+     * @param io Input and output of the session
+     * @param store Card storage
+     */
+    MenuSession(SessionIO io, CardRepository store) {
+        this.io = io;
+        this.store = store;
+    }
+
+    /**
+     * Runs the session until the customer exits or the input ends
+     */
+    void run() {
+        while (state != State.EXITED) {
+            step();
+        }
+    }
+
+    /**
+     * Handles one menu choice and moves to the next screen
+     *
+     * @return Screen the session is on afterwards
+     */
+    State step() {
+        switch (state) {
+            case MAIN_MENU:
+                state = handleMainMenu();
+                break;
+            case ACCOUNT_MENU:
+                state = handleAccountMenu();
+                break;
+            default:
+                break;
+        }
+
+        if (state == State.EXITED) {
+            io.print("Bye!");
+            io.flush();
+        }
+
+        return state;
+    }
+
+    /**
+     * Gets the screen the session is on
+     *
+     * @return A State
+     */
+    State getState() {
+        return state;
+    }
+
+    /**
+     * Displays the main menu and handles the customer's choice
+     *
+     * @return Next screen
+     */
+    private State handleMainMenu() {
+        displayMainMenu();
+        int input = getValidUserInput(NUM_MENU_OPTIONS);
+
+        if (input == NO_INPUT) {
+            return State.EXITED;
+        } else if (input != EXIT_OPTION) {
+            io.print("\n");
+        }
+
+        State next = State.MAIN_MENU;
+
+        switch (input) {
+            case 1:
+                long start = System.nanoTime();
+                Card newCard = store.issueCard();
+
+                if (newCard != null) {
+                    io.println(newCard.toString());
+                }
+                Metrics.record(Operation.MENU_CREATE_ACCOUNT, start);
+                break;
+            case 2:
+                next = handleUserLogin();
+
+                if (next != State.MAIN_MENU) {
+                    return next;
+                }
+                break;
+            default:
+                next = State.EXITED;
+                break;
+        }
+
+        io.print("\n");
+        return next;
+    }
+
+    /**
+     * Prompts user to enter login information and logs the card
+     * in if it matches an account
+     *
+     * @return ACCOUNT_MENU if the customer logged in, EXITED if the input ended, MAIN_MENU otherwise
+     */
+    private State handleUserLogin() {
+        String numberInput = getUserInput("Enter your card number:");
+        String pin = numberInput == null ? null : getUserInput("Enter your PIN:");
+
+        if (pin == null) {
+            return State.EXITED;
+        }
+
+        long cardNumber = parseCardNumber(numberInput);
+        long start = System.nanoTime();
+        card = cardNumber < 0 ? null : store.findCard(cardNumber, pin);
+
+        io.print("\n");
+        io.println(card != null ? "You have successfully logged in!" : "Wrong card number or PIN!");
+        Metrics.record(Operation.MENU_LOGIN, start);
+
+        return card != null ? State.ACCOUNT_MENU : State.MAIN_MENU;
+    }
+
+    /**
+     * Displays the account menu of the logged-in card and handles the customer's choice
+     *
+     * @return Next screen
+     */
+    private State handleAccountMenu() {
+        io.print("\n");
+        displaySubMenu();
+        int input = getValidUserInput(NUM_SUB_MENU_OPTIONS);
+
+        if (input == NO_INPUT) {
+            return State.EXITED;
+        } else if (input != EXIT_OPTION) {
+            io.print("\n");
+        }
+
+        long start = System.nanoTime();
+
+        switch (input) {
+            case 1:
+                io.println("Balance: " + card.getBalance());
+                Metrics.record(Operation.MENU_BALANCE, start);
+                return State.ACCOUNT_MENU;
+            case 2:
+                return handleIncome();
+            case 3:
+                return handleTransfer();
+            case 4:
+                if (!deleteAccount(store, card.getCardNumber())) {
+                    io.println("The account could not be closed!");
+                    Metrics.record(Operation.MENU_CLOSE_ACCOUNT, start);
+                    return State.ACCOUNT_MENU;
+                }
+                card = null;
+                io.println("The account has been closed!");
+                Metrics.record(Operation.MENU_CLOSE_ACCOUNT, start);
+                break;
+            case 5:
+                card = null;
+                io.println("You have successfully logged out!");
+                Metrics.record(Operation.MENU_LOG_OUT, start);
+                break;
+            default:
+                io.print("\n");
+                return State.EXITED;
+        }
+
+        io.print("\n");
+        return State.MAIN_MENU;
+    }
+
+    /**
+     * Prompts for an amount and adds it to the balance of the logged-in card
+     *
+     * @return EXITED if the input ended, ACCOUNT_MENU otherwise
+     */
+    private State handleIncome() {
+        String input = getUserInput("Enter income:");
+
+        if (input == null) {
+            return State.EXITED;
+        }
+
+        long amount = Money.parse(input);
+        long start = System.nanoTime();
+        io.print("\n");
+
+        if (amount != Money.NOT_AN_AMOUNT && amount <= 0) {
+            io.println("Income must be a positive amount!");
+        } else if (amount != Money.NOT_AN_AMOUNT) {
+            if (card.addIncome(amount, store)) {
+                io.println("Income was added!");
+            }
+        } else {
+            io.println("Income must be an integer!");
+        }
+        Metrics.record(Operation.MENU_ADD_INCOME, start);
+
+        return State.ACCOUNT_MENU;
+    }
+
+    /**
+     * Prompts for a card number and an amount and transfers the amount
+     * from the logged-in card to that card
+     *
+     * @return EXITED if the input ended, ACCOUNT_MENU otherwise
+     */
+    private State handleTransfer() {
+        String numberInput = getUserInput("Enter card number:");
+
+        if (numberInput == null) {
+            return State.EXITED;
+        }
+
+        long cardNumber = parseCardNumber(numberInput);
+
+        if (cardNumber < 0 || !isCheckSumDigitValid(cardNumber)) {
+            io.println("Probably you made a mistake in the card number. Please try again!");
+        } else if (cardNumber == card.getCardNumber()) {
+            io.println("You can't transfer money to the same account!");
+        } else if (!store.cardExists(cardNumber)) {
+            io.println("Such a card does not exist.");
+        } else {
+            String amountInput = getUserInput("Enter how much money you want to transfer:");
+
+            if (amountInput == null) {
+                return State.EXITED;
+            }
+
+            long amount = Money.parse(amountInput);
+
+            if (amount != Money.NOT_AN_AMOUNT) {
+                long start = System.nanoTime();
+                displayTransferResult(card.transferBalanceTo(amount, cardNumber, store));
+                Metrics.record(Operation.MENU_TRANSFER, start);
+            } else {
+                io.println("Income must be an integer!");
+            }
+        }
+
+        return State.ACCOUNT_MENU;
+    }
+
+    /**
+     * Displays the outcome of a transfer to the user
+     *
+     * @param result Outcome of the transfer
+     */
+    private void displayTransferResult(TransferResult result) {
+        io.println(result.getStatus().getMessage());
+    }
+
+    /**
+     * Display main menu to user
+     */
+    private void displayMainMenu() {
+        io.print("1. Create an account\n" +
+                "2. Log into account\n" +
+                "0. Exit\n>");
+    }
+
+    /**
+     * Display sub menu to user after successful log in attempt
+     */
+    private void displaySubMenu() {
+        io.print("1. Balance\n" +
+                "2. Add income\n" +
+                "3. Do transfer\n" +
+                "4. Close account\n" +
+                "5. Log out\n" +
+                "0. Exit\n>");
+    }
+
+    /**
+     * Prompts user to enter a menu option until a valid one is entered
+     *
+     * @param numOptions Highest option of the menu
+     * @return Integer value, NO_INPUT if the input ended
+     */
+    private int getValidUserInput(int numOptions) {
+        while (true) {
+            String input = io.readToken();
+
+            if (input == null) {
+                return NO_INPUT;
+            } else if (isInteger(input) && isWithinRange(Integer.parseInt(input), EXIT_OPTION, numOptions)) {
+                return Integer.parseInt(input);
+            }
+
+            io.print("Invalid input!\n>");
+        }
+    }
+
+    /**
+     * Indicates whether user input is valid
+     *
+     * @param input User input
+     * @param start Lowest valid value
+     * @param end Highest valid value
+     * @return True if input is within range, false otherwise
+     */
+    private static boolean isWithinRange(int input, int start, int end) {
+        return input >= start && input <= end;
+    }
+
+    /**
+     * Takes in user input
+     *
+     * @param prompt Text to display
+     * @return Next token as entered by user, null if the input ended
+     */
+    private String getUserInput(String prompt) {
+        io.print(prompt + "\n>");
+        return io.readToken();
+    }
+}
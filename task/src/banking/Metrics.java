@@ -0,0 +1,380 @@
+package banking;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This program keeps the metrics of the bank: the latency and
+ * the number of every storage operation, menu choice and text
+ * command, the errors of each operation, the errors by SQL
+ * state, and the time callers wait for a database connection.
+ * Histograms and counters are created once, so recording a
+ * measurement only increments counters and never allocates.
+ * The metrics can be read over JMX and dumped as text at a
+ * fixed interval.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+final class Metrics {
+
+    /**
+     * Operations whose latency is measured
+     */
+    enum Operation {
+        LOGIN_LOOKUP("storage.loginLookup"),
+        CARD_LOOKUP("storage.cardLookup"),
+        INSERT("storage.insert"),
+        BALANCE_UPDATE("storage.balanceUpdate"),
+        TRANSFER("storage.transfer"),
+        DELETE("storage.delete"),
+        WRITE_BATCH("storage.writeBatch"),
+        CONNECTION_WAIT("pool.connectionWait"),
+        MENU_CREATE_ACCOUNT("menu.createAccount"),
+        MENU_LOGIN("menu.login"),
+        MENU_BALANCE("menu.balance"),
+        MENU_ADD_INCOME("menu.addIncome"),
+        MENU_TRANSFER("menu.transfer"),
+        MENU_CLOSE_ACCOUNT("menu.closeAccount"),
+        MENU_LOG_OUT("menu.logOut"),
+        COMMAND_CREATE("command.create"),
+        COMMAND_LOGIN("command.login"),
+        COMMAND_BALANCE("command.balance"),
+        COMMAND_INCOME("command.income"),
+        COMMAND_TRANSFER("command.transfer"),
+        COMMAND_CLOSE("command.close"),
+        COMMAND_LOGOUT("command.logout"),
+        COMMAND_STATS("command.stats"),
+        COMMAND_QUIT("command.quit");
+
+        private final String metricName;
+
+        Operation(String metricName) {
+            this.metricName = metricName;
+        }
+
+        /**
+         * Gets the name the operation is reported under
+         *
+         * @return A String
+         */
+        String getMetricName() {
+            return metricName;
+        }
+    }
+
+    static final String OBJECT_NAME = "banking:type=Metrics";
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final LatencyHistogram[] LATENCIES = new LatencyHistogram[OPERATIONS.length];
+    private static final LongAdder[] ERRORS = new LongAdder[OPERATIONS.length];
+    private static final ConcurrentMap<String, LongAdder> ERRORS_BY_SQL_STATE = new ConcurrentHashMap<>();
+    private static final int RESULT_CODES = 256;
+    private static final LongAdder[] ERRORS_BY_CODE = new LongAdder[RESULT_CODES];
+
+    static {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            LATENCIES[i] = new LatencyHistogram();
+            ERRORS[i] = new LongAdder();
+        }
+
+        for (int i = 0; i < RESULT_CODES; i++) {
+            ERRORS_BY_CODE[i] = new LongAdder();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Records the duration of an operation that started at the specified time
+     *
+     * @param operation Operation that completed
+     * @param startNanos Value of System.nanoTime() when the operation started
+     */
+    static void record(Operation operation, long startNanos) {
+        LATENCIES[operation.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records an operation duration that was measured by the caller
+     *
+     * @param operation Operation that completed
+     * @param nanos Duration in nanoseconds
+     */
+    static void recordNanos(Operation operation, long nanos) {
+        LATENCIES[operation.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records that an operation failed. Errors reported by the database are
+     * also counted under their SQL state, or under the primary SQLite result code
+     * when the driver does not report a state.
+     *
+     * @param operation Operation that failed
+     * @param e Exception the operation failed with
+     */
+    static void recordError(Operation operation, Exception e) {
+        ERRORS[operation.ordinal()].increment();
+
+        if (e instanceof SQLException) {
+            recordSqlError((SQLException) e);
+        }
+    }
+
+    /**
+     * Counts a database error under its SQL state, or under its primary
+     * result code, the low byte of an extended SQLite code
+     *
+     * @param e Error reported by the database
+     */
+    private static void recordSqlError(SQLException e) {
+        String sqlState = e.getSQLState();
+
+        if (sqlState == null) {
+            ERRORS_BY_CODE[e.getErrorCode() & 0xFF].increment();
+            return;
+        }
+
+        LongAdder count = ERRORS_BY_SQL_STATE.get(sqlState);
+
+        if (count == null) {
+            count = ERRORS_BY_SQL_STATE.computeIfAbsent(sqlState, state -> new LongAdder());
+        }
+
+        count.increment();
+    }
+
+    /**
+     * Gets the latency histogram of an operation
+     *
+     * @param operation Measured operation
+     * @return A LatencyHistogram
+     */
+    static LatencyHistogram getLatency(Operation operation) {
+        return LATENCIES[operation.ordinal()];
+    }
+
+    /**
+     * Gets the number of times an operation failed
+     *
+     * @param operation Measured operation
+     * @return A long
+     */
+    static long getErrorCount(Operation operation) {
+        return ERRORS[operation.ordinal()].sum();
+    }
+
+    /**
+     * Gets the number of errors of every SQL state seen so far, with errors
+     * reported without a state listed as 'code' and their SQLite result code
+     *
+     * @return Error counts sorted by SQL state
+     */
+    static Map<String, Long> getErrorsBySqlState() {
+        Map<String, Long> errors = new TreeMap<>();
+        ERRORS_BY_SQL_STATE.forEach((state, count) -> errors.put(state, count.sum()));
+
+        for (int code = 0; code < RESULT_CODES; code++) {
+            long count = ERRORS_BY_CODE[code].sum();
+
+            if (count > 0) {
+                errors.put("code " + code, count);
+            }
+        }
+
+        return errors;
+    }
+
+    /**
+     * Gets a report of every operation that was measured at least once
+     *
+     * @return A String
+     */
+    static String getReport() {
+        StringBuilder report = new StringBuilder();
+
+        for (Operation operation : OPERATIONS) {
+            LatencyHistogram latency = getLatency(operation);
+
+            if (latency.getCount() > 0) {
+                report.append(operation.getMetricName())
+                        .append(' ').append(latency)
+                        .append(" errors=").append(getErrorCount(operation))
+                        .append('\n');
+            }
+        }
+
+        Map<String, Long> errors = getErrorsBySqlState();
+
+        if (!errors.isEmpty()) {
+            report.append("errors by SQL state: ").append(errors).append('\n');
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under OBJECT_NAME,
+     * unless they are registered already
+     *
+     * @return True if the metrics can be read over JMX, false otherwise
+     */
+    static boolean registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Bean(), name);
+            }
+            return true;
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Prints the report, along with the throughput of each operation since the
+     * previous report, at the specified interval on a daemon thread
+     *
+     * @param intervalSeconds Seconds between two reports, at least one
+     * @param out Stream the reports are printed to
+     * @return Scheduler of the reports, to be shut down to stop them
+     * @throws IllegalArgumentException If the interval is shorter than one second
+     */
+    static ScheduledExecutorService startReporter(long intervalSeconds, PrintStream out) {
+        if (intervalSeconds < 1) {
+            throw new IllegalArgumentException("Metrics interval must be at least one second: " + intervalSeconds);
+        }
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] previousCounts = new long[OPERATIONS.length];
+
+        scheduler.scheduleAtFixedRate(() -> {
+            StringBuilder throughput = new StringBuilder("throughput:");
+
+            for (Operation operation : OPERATIONS) {
+                long count = getLatency(operation).getCount();
+                long delta = count - previousCounts[operation.ordinal()];
+                previousCounts[operation.ordinal()] = count;
+
+                if (delta > 0) {
+                    throughput.append(' ').append(operation.getMetricName())
+                            .append('=').append(delta / intervalSeconds).append("/s");
+                }
+            }
+
+            out.print(getReport() + throughput + '\n');
+            out.flush();
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+
+        return scheduler;
+    }
+
+    /**
+     * Reads the latencies in microseconds of every measured operation for one percentile
+     *
+     * @param percentile Percentage, e.g. 99.9
+     * @return Latencies by operation name
+     */
+    private static Map<String, Long> percentileMicros(double percentile) {
+        Map<String, Long> latencies = new TreeMap<>();
+
+        for (Operation operation : OPERATIONS) {
+            latencies.put(operation.getMetricName(),
+                    TimeUnit.NANOSECONDS.toMicros(getLatency(operation).getPercentile(percentile)));
+        }
+        return latencies;
+    }
+
+    /**
+     * Exposes the metrics over JMX
+     */
+    private static final class Bean implements MetricsMXBean {
+
+        @Override
+        public Map<String, Long> getCounts() {
+            Map<String, Long> counts = new TreeMap<>();
+
+            for (Operation operation : OPERATIONS) {
+                counts.put(operation.getMetricName(), getLatency(operation).getCount());
+            }
+            return counts;
+        }
+
+        @Override
+        public Map<String, Long> getErrorCounts() {
+            Map<String, Long> errors = new TreeMap<>();
+
+            for (Operation operation : OPERATIONS) {
+                errors.put(operation.getMetricName(), getErrorCount(operation));
+            }
+            return errors;
+        }
+
+        @Override
+        public Map<String, Long> getErrorsBySqlState() {
+            return Metrics.getErrorsBySqlState();
+        }
+
+        @Override
+        public Map<String, Long> getMeanMicros() {
+            Map<String, Long> latencies = new TreeMap<>();
+
+            for (Operation operation : OPERATIONS) {
+                latencies.put(operation.getMetricName(),
+                        TimeUnit.NANOSECONDS.toMicros(getLatency(operation).getMean()));
+            }
+            return latencies;
+        }
+
+        @Override
+        public Map<String, Long> getP50Micros() {
+            return percentileMicros(50);
+        }
+
+        @Override
+        public Map<String, Long> getP99Micros() {
+            return percentileMicros(99);
+        }
+
+        @Override
+        public Map<String, Long> getP999Micros() {
+            return percentileMicros(99.9);
+        }
+
+        @Override
+        public Map<String, Long> getMaxMicros() {
+            Map<String, Long> latencies = new TreeMap<>();
+
+            for (Operation operation : OPERATIONS) {
+                latencies.put(operation.getMetricName(),
+                        TimeUnit.NANOSECONDS.toMicros(getLatency(operation).getMax()));
+            }
+            return latencies;
+        }
+
+        @Override
+        public String getReport() {
+            return Metrics.getReport();
+        }
+    }
+}
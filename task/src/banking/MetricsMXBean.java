@@ -0,0 +1,78 @@
+package banking;
+
+import java.util.Map;
+
+/**
+ * This program describes the metrics of the bank as they are
+ * read over JMX. Every map is keyed by operation name, e.g.
+ * 'storage.transfer' or 'menu.login'. The interface must be
+ * public for the MBean server to expose it.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Gets the number of times each operation completed
+     *
+     * @return Counts by operation name
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * Gets the number of times each operation failed
+     *
+     * @return Error counts by operation name
+     */
+    Map<String, Long> getErrorCounts();
+
+    /**
+     * Gets the number of errors of each SQL state
+     *
+     * @return Error counts by SQL state
+     */
+    Map<String, Long> getErrorsBySqlState();
+
+    /**
+     * Gets the average latency of each operation
+     *
+     * @return Latencies in microseconds by operation name
+     */
+    Map<String, Long> getMeanMicros();
+
+    /**
+     * Gets the median latency of each operation
+     *
+     * @return Latencies in microseconds by operation name
+     */
+    Map<String, Long> getP50Micros();
+
+    /**
+     * Gets the 99th percentile latency of each operation
+     *
+     * @return Latencies in microseconds by operation name
+     */
+    Map<String, Long> getP99Micros();
+
+    /**
+     * Gets the 99.9th percentile latency of each operation
+     *
+     * @return Latencies in microseconds by operation name
+     */
+    Map<String, Long> getP999Micros();
+
+    /**
+     * Gets the longest latency of each operation
+     *
+     * @return Latencies in microseconds by operation name
+     */
+    Map<String, Long> getMaxMicros();
+
+    /**
+     * Gets the text report of the measured operations
+     *
+     * @return A String
+     */
+    String getReport();
+}
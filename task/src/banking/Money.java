@@ -0,0 +1,93 @@
+package banking;
+
+/**
+ * This program handles amounts of money as primitive longs
+ * counted in the bank's minor unit. The card table stores
+ * balances as whole numbers of the currency, and the menus
+ * only accept whole amounts, so one minor unit is one unit
+ * of the currency. Amounts are parsed, added and checked
+ * without allocating, and any result that would not fit in
+ * a long is refused instead of wrapping around.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+final class Money {
+
+    /* Returned by parse when the input is not an amount */
+    static final long NOT_AN_AMOUNT = Long.MIN_VALUE;
+
+    private Money() {
+    }
+
+    /**
+     * Reads an amount written as an optionally signed whole number, e.g. '-250'
+     *
+     * @param input Text entered by the user
+     * @return Amount in minor units, NOT_AN_AMOUNT if the input is not a whole number that fits in a long
+     */
+    static long parse(CharSequence input) {
+        int length = input == null ? 0 : input.length();
+        int start = length > 0 && (input.charAt(0) == '-' || input.charAt(0) == '+') ? 1 : 0;
+
+        if (start == length) {
+            return NOT_AN_AMOUNT;
+        }
+
+        boolean isNegative = input.charAt(0) == '-';
+        long amount = 0;
+
+        for (int i = start; i < length; i++) {
+            int digit = input.charAt(i) - '0';
+
+            if (digit < 0 || digit > 9) {
+                return NOT_AN_AMOUNT;
+            }
+
+            /* Accumulate negatively, since Long.MIN_VALUE has no positive counterpart */
+            if (amount < (Long.MIN_VALUE + digit) / 10) {
+                return NOT_AN_AMOUNT;
+            }
+            amount = amount * 10 - digit;
+        }
+
+        if (isNegative) {
+            return amount;
+        }
+        return amount == Long.MIN_VALUE ? NOT_AN_AMOUNT : -amount;
+    }
+
+    /**
+     * Adds an amount to a balance
+     *
+     * @param balance Balance in minor units
+     * @param amount Amount in minor units
+     * @return New balance in minor units
+     * @throws ArithmeticException If the new balance does not fit in a long
+     */
+    static long add(long balance, long amount) {
+        return Math.addExact(balance, amount);
+    }
+
+    /**
+     * Gets the lowest balance the specified amount can be added to
+     * without going below the smallest long
+     *
+     * @param amount Amount in minor units
+     * @return A long
+     */
+    static long lowestBalanceFor(long amount) {
+        return amount < 0 ? Long.MIN_VALUE - amount : Long.MIN_VALUE;
+    }
+
+    /**
+     * Gets the highest balance the specified amount can be added to
+     * without going above the largest long
+     *
+     * @param amount Amount in minor units
+     * @return A long
+     */
+    static long highestBalanceFor(long amount) {
+        return amount > 0 ? Long.MAX_VALUE - amount : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,173 @@
+package banking;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This program wraps a physical database connection that
+ * belongs to a connection pool. Closing it hands the
+ * connection back to the pool instead of closing the
+ * database file. Statements prepared through it are kept
+ * for as long as the physical connection stays open, so
+ * the database parses and plans each query only once.
+ * A busy timeout set while it is lent out is undone when
+ * it is returned.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class PooledConnection implements AutoCloseable {
+
+    private static final int MAX_CACHED_STATEMENTS = 32;
+
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements =
+            new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= MAX_CACHED_STATEMENTS) {
+                        return false;
+                    }
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+            };
+    private long releasedAt;
+    private boolean leased;
+    private int busyTimeoutMillis;
+
+    /**
+     * Custom constructor
+     *
+     * @param pool Pool the connection belongs to
+     * @param connection Physical database connection
+     */
+    PooledConnection(ConnectionPool pool, Connection connection) {
+        this.pool = pool;
+        this.connection = connection;
+        this.releasedAt = System.currentTimeMillis();
+        this.busyTimeoutMillis = pool.getProfile().getBusyTimeout();
+    }
+
+    /**
+     * Marks the connection as lent out
+     *
+     * @return This object
+     */
+    PooledConnection lease() {
+        leased = true;
+        return this;
+    }
+
+    /**
+     * Gets the physical database connection
+     *
+     * @return A Connection
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Gets a prepared statement for the specified query, reusing the
+     * one cached on this connection if the query was prepared before.
+     * Parameters left over from the previous use are cleared.
+     * The statement must not be closed by the caller.
+     *
+     * @param sql Query text
+     * @return A PreparedStatement
+     * @throws SQLException If the query cannot be prepared
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+            pool.recordStatementMiss();
+        } else {
+            statement.clearParameters();
+            pool.recordStatementHit();
+        }
+
+        return statement;
+    }
+
+    /**
+     * Sets how long statements on this connection wait for a lock held by
+     * another connection before failing as busy, until it is returned to the pool
+     *
+     * @param millis Busy timeout in milliseconds
+     * @throws SQLException If the timeout cannot be set
+     */
+    void setBusyTimeout(int millis) throws SQLException {
+        if (millis == busyTimeoutMillis) {
+            return;
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA busy_timeout = " + millis + ";");
+        }
+        busyTimeoutMillis = millis;
+    }
+
+    /**
+     * Gets the time elapsed since the connection was last returned to the pool
+     *
+     * @return Idle time in milliseconds
+     */
+    long getIdleMillis() {
+        return System.currentTimeMillis() - releasedAt;
+    }
+
+    /**
+     * Closes the cached statements and the physical database connection
+     *
+     * @throws SQLException If the connection cannot be closed
+     */
+    void closePhysical() throws SQLException {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+        connection.close();
+    }
+
+    /**
+     * Closes a statement, ignoring any error since the statement is being thrown away
+     *
+     * @param statement Statement to close
+     */
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Returns the connection to its pool. Closing an already
+     * returned connection has no effect.
+     */
+    @Override
+    public void close() {
+        if (!leased) {
+            return;
+        }
+
+        try {
+            setBusyTimeout(pool.getProfile().getBusyTimeout());
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        leased = false;
+        releasedAt = System.currentTimeMillis();
+        pool.release(this);
+    }
+}
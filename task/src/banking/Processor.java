@@ -1,8 +1,13 @@
 package banking;
 
-import org.sqlite.SQLiteDataSource;
-
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+
+import banking.Metrics.Operation;
 
 import static banking.Card.isCheckSumDigitValid;
 
@@ -17,6 +22,40 @@ import static banking.Card.isCheckSumDigitValid;
  */
 public class Processor {
 
+    static final String INSERT_SQL = "INSERT INTO card (number, pin) VALUES (?, ?);";
+    static final String SELECT_BY_NUMBER_SQL = "SELECT pin, balance FROM card WHERE number = ?;";
+    static final String SELECT_BY_NUMBER_AND_PIN_SQL = "SELECT balance FROM card WHERE number = ? AND pin = ?;";
+    static final String EXISTS_SQL = "SELECT 1 FROM card WHERE number = ?;";
+    static final String SELECT_BALANCE_SQL = "SELECT balance FROM card WHERE number = ?;";
+    static final String DEBIT_SQL = "UPDATE card SET balance = balance - ? WHERE number = ? AND balance >= ?;";
+    static final String CREDIT_SQL = "UPDATE card SET balance = balance + ? WHERE number = ? AND balance BETWEEN ? AND ?;";
+    static final String DELETE_SQL = "DELETE FROM card WHERE number = ?;";
+
+    static final String INSERT_INTENT_SQL = "INSERT INTO transfer_intent (id, number, amount) VALUES (?, ?, ?);";
+    static final String SELECT_INTENT_SQL = "SELECT number, amount FROM transfer_intent WHERE id = ?;";
+    static final String SELECT_INTENT_IDS_SQL = "SELECT id FROM transfer_intent;";
+    static final String DELETE_INTENT_SQL = "DELETE FROM transfer_intent WHERE id = ?;";
+    static final String INTENT_EXISTS_SQL = "SELECT 1 FROM transfer_intent WHERE number = ? LIMIT 1;";
+
+    static final String BEGIN_IMMEDIATE_SQL = "BEGIN IMMEDIATE;";
+    static final String COMMIT_SQL = "COMMIT;";
+    static final String ROLLBACK_SQL = "ROLLBACK;";
+    static final String SAVEPOINT_SQL = "SAVEPOINT mutation;";
+    static final String RELEASE_SQL = "RELEASE mutation;";
+    static final String ROLLBACK_TO_SQL = "ROLLBACK TO mutation;";
+
+    /* Balance carried by failed transfer results, which callers tell apart by their status */
+    static final long NO_BALANCE = -1;
+    static final int SQLITE_BUSY = 5;
+    static final int SQLITE_LOCKED = 6;
+    static final int SQLITE_CONSTRAINT = 19;
+
+    private static final long MIN_CARD_NUMBER = 1_000_000_000_000_000L;
+    private static final long MAX_CARD_NUMBER = 9_999_999_999_999_999L;
+
+    /* Keeps multi-row statements below SQLite's limit of 999 parameters */
+    private static final int MAX_ROWS_PER_STATEMENT = 400;
+
     /**
      * Indicates whether all inputs are valid
      *
@@ -24,16 +63,17 @@ public class Processor {
      * @param pin PIN
      * @return True if inputs are valid, false otherwise
      */
-    private static boolean areInputsValid(String cardNumber, String pin) {
+    private static boolean areInputsValid(long cardNumber, String pin) {
         /* We know the login will fail if the card number does not meet
             the following criteria:
-            1) Card number is not 16 characters long
+            1) Card number is not 16 digits long
             2) The MII not '4'
-            3) The pin cannot be converted to an integer
+            3) The check digit is wrong
+            4) The pin cannot be converted to an integer
          */
-        if (cardNumber.length() != 16) {
+        if (cardNumber < MIN_CARD_NUMBER || cardNumber > MAX_CARD_NUMBER) {
             return false;
-        } else if (cardNumber.charAt(0) != '4') {
+        } else if (cardNumber / MIN_CARD_NUMBER != 4) {
             return false;
         } else if (!isCheckSumDigitValid(cardNumber)) {
             return false;
@@ -62,64 +102,201 @@ public class Processor {
     /**
      * Inserts card information such as card number and PIN into db table
      *
-     * @param dataSource SQLite data source
+     * @param pool Database connection pool
      * @param card Instance of Card object
      * @return true if card info was stored in table, false otherwise
      */
-    static boolean insertCardInfoToTable(SQLiteDataSource dataSource, Card card) {
-        try (Connection con = dataSource.getConnection()) {
-            String insertSQL = "INSERT INTO card (number, pin) "
-                    + "VALUES (?, ?);";
-
-            try (PreparedStatement insertCard = con.prepareStatement(insertSQL)) {
-                insertCard.setString(1, card.getCardNumber());
-                insertCard.setString(2, card.getPIN());
-                insertCard.executeUpdate();
+    static boolean insertCardInfoToTable(ConnectionPool pool, Card card) {
+        try (PooledConnection pooled = pool.borrow()) {
+            insertCardInfoToTable(pooled, card);
 
-                return true;
-            } catch (SQLException e) {
+            return true;
+        } catch (SQLException e) {
+            /* A taken number is expected now and then; the caller issues another one */
+            if (!isNumberTaken(e)) {
                 e.printStackTrace();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return false;
     }
 
+    /**
+     * Inserts card information such as card number and PIN into db table
+     * as part of the caller's transaction
+     *
+     * @param pooled Database connection
+     * @param card Instance of Card object
+     * @throws SQLException If the card cannot be stored
+     */
+    static void insertCardInfoToTable(PooledConnection pooled, Card card) throws SQLException {
+        long start = System.nanoTime();
+
+        try {
+            PreparedStatement insertCard = pooled.prepare(INSERT_SQL);
+            insertCard.setLong(1, card.getCardNumber());
+            insertCard.setString(2, card.getPIN());
+            SqlTracer.executeUpdate(insertCard, INSERT_SQL);
+        } catch (SQLException e) {
+            Metrics.recordError(Operation.INSERT, e);
+            throw e;
+        } finally {
+            Metrics.record(Operation.INSERT, start);
+        }
+    }
+
+    /**
+     * Inserts the information of several cards into db table in a single transaction.
+     * The transaction holds the write lock from the start, so the numbers found to be
+     * taken cannot change before the rows are sent in chunks of multi-row 'INSERT'
+     * statements. Cards whose number is taken, by a stored card or by an earlier card
+     * of the list, are left out and returned so they can be issued again. The size of
+     * these statements depends on the batch, so they are prepared for this call only
+     * and kept out of the connection's statement cache.
+     *
+     * @param pool Database connection pool
+     * @param cards Cards to be stored
+     * @return Cards that were not stored because their number is taken, empty if all were stored
+     * @throws SQLException If the cards cannot be stored, in which case none is
+     */
+    static List<Card> insertCardsInTable(ConnectionPool pool, List<Card> cards) throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            pooled.getConnection().setAutoCommit(true);
+            beginImmediateTransaction(pooled);
+
+            try {
+                List<Card> rejected = new ArrayList<>();
+                Set<Long> numbers = new HashSet<>();
+
+                for (int from = 0; from < cards.size(); from += MAX_ROWS_PER_STATEMENT) {
+                    List<Card> chunk = cards.subList(from, Math.min(from + MAX_ROWS_PER_STATEMENT, cards.size()));
+                    Set<Long> taken = selectTakenNumbers(pooled, chunk);
+                    List<Card> accepted = new ArrayList<>(chunk.size());
+
+                    for (Card card : chunk) {
+                        if (!taken.contains(card.getCardNumber()) && numbers.add(card.getCardNumber())) {
+                            accepted.add(card);
+                        } else {
+                            rejected.add(card);
+                        }
+                    }
+
+                    if (accepted.isEmpty()) {
+                        continue;
+                    }
+
+                    String insertSQL = buildInsertSQL(accepted.size());
+
+                    try (PreparedStatement insertCards = pooled.getConnection().prepareStatement(insertSQL)) {
+                        int index = 1;
+
+                        for (Card card : accepted) {
+                            insertCards.setLong(index++, card.getCardNumber());
+                            insertCards.setString(index++, card.getPIN());
+                        }
+                        SqlTracer.executeUpdate(insertCards, insertSQL);
+                    }
+                }
+
+                commitTransaction(pooled);
+                return rejected;
+            } catch (SQLException e) {
+                rollbackTransaction(pooled);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Finds which numbers of a list of cards are already stored in table
+     *
+     * @param pooled Connection with an open transaction
+     * @param cards Cards, at most MAX_ROWS_PER_STATEMENT of them
+     * @return Set of the stored card numbers
+     * @throws SQLException If the query fails
+     */
+    private static Set<Long> selectTakenNumbers(PooledConnection pooled, List<Card> cards) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT number FROM card WHERE number IN (?");
+
+        for (int i = 1; i < cards.size(); i++) {
+            sql.append(", ?");
+        }
+
+        String selectSQL = sql.append(");").toString();
+        Set<Long> taken = new HashSet<>();
+
+        try (PreparedStatement selectNumbers = pooled.getConnection().prepareStatement(selectSQL)) {
+            for (int i = 0; i < cards.size(); i++) {
+                selectNumbers.setLong(i + 1, cards.get(i).getCardNumber());
+            }
+
+            try (ResultSet rst = SqlTracer.executeQuery(selectNumbers, selectSQL)) {
+                while (rst.next()) {
+                    taken.add(rst.getLong("number"));
+                }
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Builds an 'INSERT' statement that stores the specified number of cards
+     *
+     * @param rows Number of cards
+     * @return A String
+     */
+    private static String buildInsertSQL(int rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO card (number, pin) VALUES (?, ?)");
+
+        for (int i = 1; i < rows; i++) {
+            sql.append(", (?, ?)");
+        }
+
+        return sql.append(';').toString();
+    }
+
+    /**
+     * Indicates whether a statement failed because a card number is already stored
+     *
+     * @param e Error reported by the database
+     * @return True if the card can be stored under another number, false otherwise
+     */
+    static boolean isNumberTaken(SQLException e) {
+        return (e.getErrorCode() & 0xFF) == SQLITE_CONSTRAINT
+                || String.valueOf(e.getMessage()).contains("UNIQUE constraint failed");
+    }
+
     /**
      * Executes a 'SELECT' query and returns a 'Card' object if card number exists in table
      *
-     * @param dataSource SQLite data source
+     * @param pool Database connection pool
      * @param cardNumber Credit card number
      * @param pin Credit card PIN
      * @return 'Card' object if entry is found, null otherwise
      */
-    static Card selectCardFromTable(SQLiteDataSource dataSource, String cardNumber, String pin) {
+    static Card selectCardFromTable(ConnectionPool pool, long cardNumber, String pin) {
 
         if (!areInputsValid(cardNumber, pin)) {
             return null;
         }
 
-        try (Connection con = dataSource.getConnection()) {
-            String selectSQL = "SELECT * "
-                    + "FROM card "
-                    + "WHERE number = ? AND pin = ?;";
-            try (PreparedStatement selectCard = con.prepareStatement(selectSQL)) {
+        long start = System.nanoTime();
 
-                selectCard.setString(1, cardNumber);
-                selectCard.setString(2, pin);
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement selectCard = pooled.prepare(SELECT_BY_NUMBER_AND_PIN_SQL);
+            selectCard.setLong(1, cardNumber);
+            selectCard.setString(2, pin);
 
-                try (ResultSet rst = selectCard.executeQuery()) {
-                    if (rst.next()) {
-                        double balance = rst.getDouble("balance");
-                        return new Card(cardNumber, pin, balance);
-                    }
+            try (ResultSet rst = SqlTracer.executeQuery(selectCard, SELECT_BY_NUMBER_AND_PIN_SQL)) {
+                if (rst.next()) {
+                    long balance = rst.getLong("balance");
+                    return new Card(cardNumber, pin, balance);
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
             }
         } catch (SQLException e) {
+            Metrics.recordError(Operation.LOGIN_LOOKUP, e);
             e.printStackTrace();
+        } finally {
+            Metrics.record(Operation.LOGIN_LOOKUP, start);
         }
         return null;
     }
@@ -127,136 +304,456 @@ public class Processor {
     /**
      * Executes a 'SELECT' query and returns a 'Card' object if card number exists in table
      *
-     * @param dataSource SQLite data source
+     * @param pool Database connection pool
      * @param cardNumber Card number
      * @return Card object if entry is found, null otherwise
      */
-    static Card selectCardFromTable(SQLiteDataSource dataSource, String cardNumber) {
-
-        try (Connection con = dataSource.getConnection()) {
-            String selectSQL = "SELECT * "
-                    + "FROM card "
-                    + "WHERE number = ?;";
-            try (PreparedStatement selectCard = con.prepareStatement(selectSQL)) {
-
-                selectCard.setString(1, cardNumber);
-
-                try (ResultSet rst = selectCard.executeQuery()) {
-                    if (rst.next()) {
-                        String pin = rst.getString("pin");
-                        double balance = rst.getDouble("balance");
-                        return new Card(cardNumber, pin, balance);
-                    }
+    static Card selectCardFromTable(ConnectionPool pool, long cardNumber) {
+        long start = System.nanoTime();
+
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement selectCard = pooled.prepare(SELECT_BY_NUMBER_SQL);
+            selectCard.setLong(1, cardNumber);
+
+            try (ResultSet rst = SqlTracer.executeQuery(selectCard, SELECT_BY_NUMBER_SQL)) {
+                if (rst.next()) {
+                    String pin = rst.getString("pin");
+                    long balance = rst.getLong("balance");
+                    return new Card(cardNumber, pin, balance);
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
             }
         } catch (SQLException e) {
+            Metrics.recordError(Operation.CARD_LOOKUP, e);
             e.printStackTrace();
+        } finally {
+            Metrics.record(Operation.CARD_LOOKUP, start);
         }
         return null;
     }
 
     /**
-     * Updates the balance of the specified card number
+     * Adds the specified amount to the balance of the specified card number and
+     * reads the new balance back as part of the caller's transaction
      *
+     * @param pooled Connection with an open transaction
      * @param cardNumber Card number
-     * @param dataSource SQLite data source
-     * @return True if update is successful, false otherwise
+     * @param amount Amount to be added, must be positive
+     * @return New balance, empty if the amount is not positive, the card does not exist or the new balance would overflow
+     * @throws SQLException If a statement fails
      */
-    static boolean updateBalanceInTable(SQLiteDataSource dataSource, String cardNumber, double balance) {
-        try (Connection con = dataSource.getConnection()) {
-            String updateSQL = "UPDATE card "
-                    + "SET balance = ? "
-                    + "WHERE number = ?;";
+    static OptionalLong depositToBalanceInTable(PooledConnection pooled, long cardNumber, long amount)
+            throws SQLException {
+        long start = System.nanoTime();
 
-            try (PreparedStatement updateCard = con.prepareStatement(updateSQL)) {
-                updateCard.setInt(1, (int) balance);
-                updateCard.setString(2, cardNumber);
-                updateCard.executeUpdate();
+        try {
+            return updateBalance(pooled, cardNumber, amount);
+        } catch (SQLException e) {
+            Metrics.recordError(Operation.BALANCE_UPDATE, e);
+            throw e;
+        } finally {
+            Metrics.record(Operation.BALANCE_UPDATE, start);
+        }
+    }
 
-                return true;
-            } catch (SQLException e) {
-                e.printStackTrace();
+    /**
+     * Adds the specified amount to the balance of the specified card number and
+     * reads the new balance back
+     *
+     * @param pooled Connection with an open transaction
+     * @param cardNumber Card number
+     * @param amount Amount to be added, must be positive
+     * @return New balance, empty if the amount is not positive, the card does not exist or the new balance would overflow
+     * @throws SQLException If a statement fails
+     */
+    private static OptionalLong updateBalance(PooledConnection pooled, long cardNumber, long amount)
+            throws SQLException {
+        if (amount <= 0 || !creditBalance(pooled, cardNumber, amount)) {
+            return OptionalLong.empty();
+        }
+
+        PreparedStatement selectBalance = pooled.prepare(SELECT_BALANCE_SQL);
+        selectBalance.setLong(1, cardNumber);
+
+        try (ResultSet rst = SqlTracer.executeQuery(selectBalance, SELECT_BALANCE_SQL)) {
+            return rst.next() ? OptionalLong.of(rst.getLong("balance")) : OptionalLong.empty();
+        }
+    }
+
+    /**
+     * Adds the specified amount to the balance of the specified card number,
+     * unless the new balance would not fit in a long. SQLite would otherwise
+     * turn an overflowing sum into a floating-point value.
+     *
+     * @param pooled Connection with an open transaction
+     * @param cardNumber Card number
+     * @param amount Amount to be added
+     * @return True if the balance was updated, false if the card does not exist or the balance would overflow
+     * @throws SQLException If the statement fails
+     */
+    private static boolean creditBalance(PooledConnection pooled, long cardNumber, long amount) throws SQLException {
+        PreparedStatement creditCard = pooled.prepare(CREDIT_SQL);
+        creditCard.setLong(1, amount);
+        creditCard.setLong(2, cardNumber);
+        creditCard.setLong(3, Money.lowestBalanceFor(amount));
+        creditCard.setLong(4, Money.highestBalanceFor(amount));
+
+        return SqlTracer.executeUpdate(creditCard, CREDIT_SQL) > 0;
+    }
+
+    /**
+     * Indicates whether the specified card number exists in table
+     *
+     * @param pool Database connection pool
+     * @param cardNumber Card number
+     * @return True if card exists, false otherwise
+     */
+    static boolean cardExistsInTable(ConnectionPool pool, long cardNumber) {
+        long start = System.nanoTime();
+
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement selectCard = pooled.prepare(EXISTS_SQL);
+            selectCard.setLong(1, cardNumber);
+
+            try (ResultSet rst = SqlTracer.executeQuery(selectCard, EXISTS_SQL)) {
+                return rst.next();
             }
         } catch (SQLException e) {
+            Metrics.recordError(Operation.CARD_LOOKUP, e);
             e.printStackTrace();
+        } finally {
+            Metrics.record(Operation.CARD_LOOKUP, start);
         }
-
         return false;
     }
 
     /**
-     * Transfers the specified amount from one account balance to another in a db table
+     * Transfers the specified amount from one account balance to another in a db table.
+     * The credit doubles as the check that the target exists and the debit only
+     * applies if the sender's balance covers the amount, so the whole transfer is
+     * decided by the database. The statements run in the caller's transaction,
+     * which must be rolled back unless the transfer succeeds.
      *
+     * @param pooled Connection with an open transaction
      * @param fromNumber Credit card number from which amount will be withdrawn
      * @param toNumber Credit card number upon which amount will be deposited
      * @param amount Amount to be transferred
-     * @param dataSource SQLite data source
-     * @return True if updates executed successfully, false otherwise
+     * @return Outcome of the transfer with the sender's new balance if it succeeded
+     * @throws SQLException If a statement fails
      */
-    static boolean transferBalanceInTable(SQLiteDataSource dataSource, String fromNumber, String toNumber, int amount) {
-        String updateCard1SQL = "UPDATE card SET balance = balance - ? WHERE number = ?";
-        String updateCard2SQL = "UPDATE card SET balance = balance + ? WHERE number = ?";
+    static TransferResult transferBalanceInTable(PooledConnection pooled, long fromNumber, long toNumber,
+                                                 long amount) throws SQLException {
+        long start = System.nanoTime();
 
-        try (Connection con = dataSource.getConnection()) {
-            con.setAutoCommit(false);
+        try {
+            return moveBalance(pooled, fromNumber, toNumber, amount);
+        } catch (SQLException e) {
+            Metrics.recordError(Operation.TRANSFER, e);
+            throw e;
+        } finally {
+            Metrics.record(Operation.TRANSFER, start);
+        }
+    }
 
-            try (PreparedStatement updateCard1 = con.prepareStatement(updateCard1SQL);
-                 PreparedStatement updateCard2 = con.prepareStatement(updateCard2SQL)) {
+    /**
+     * Moves the specified amount from one account balance to another
+     *
+     * @param pooled Connection with an open transaction
+     * @param fromNumber Credit card number from which amount will be withdrawn
+     * @param toNumber Credit card number upon which amount will be deposited
+     * @param amount Amount to be transferred
+     * @return Outcome of the transfer with the sender's new balance if it succeeded
+     * @throws SQLException If a statement fails
+     */
+    private static TransferResult moveBalance(PooledConnection pooled, long fromNumber, long toNumber,
+                                              long amount) throws SQLException {
+        if (fromNumber == toNumber) {
+            return TransferResult.SAME_ACCOUNT;
+        } else if (amount <= 0) {
+            return TransferResult.INVALID_AMOUNT;
+        }
 
-                updateCard1.setInt(1, amount);
-                updateCard1.setString(2, fromNumber);
-                updateCard1.executeUpdate();
+        if (!creditBalance(pooled, toNumber, amount)) {
+            PreparedStatement selectCard = pooled.prepare(EXISTS_SQL);
+            selectCard.setLong(1, toNumber);
 
-                updateCard2.setInt(1, amount);
-                updateCard2.setString(2, toNumber);
-                updateCard2.executeUpdate();
+            try (ResultSet rst = SqlTracer.executeQuery(selectCard, EXISTS_SQL)) {
+                return rst.next() ? TransferResult.BALANCE_OVERFLOW : TransferResult.UNKNOWN_TARGET;
+            }
+        }
 
-                con.commit();
+        PreparedStatement debitCard = pooled.prepare(DEBIT_SQL);
+        debitCard.setLong(1, amount);
+        debitCard.setLong(2, fromNumber);
+        debitCard.setLong(3, amount);
+
+        if (SqlTracer.executeUpdate(debitCard, DEBIT_SQL) == 0) {
+            return TransferResult.INSUFFICIENT_FUNDS;
+        }
+
+        PreparedStatement selectBalance = pooled.prepare(SELECT_BALANCE_SQL);
+        selectBalance.setLong(1, fromNumber);
+
+        try (ResultSet rst = SqlTracer.executeQuery(selectBalance, SELECT_BALANCE_SQL)) {
+            rst.next();
+            return TransferResult.success(rst.getLong("balance"));
+        }
+    }
+
+    /**
+     * Prepares the sender's side of a transfer to a card stored in another database:
+     * the amount is taken from the sender's balance and the debit is recorded as a
+     * pending intent of the transfer, so it can be refunded if the transfer is
+     * aborted. The statements run in the caller's transaction.
+     *
+     * @param pooled Connection with an open transaction
+     * @param transferId Identifier of the transfer
+     * @param fromNumber Credit card number from which amount will be withdrawn
+     * @param amount Amount to be transferred
+     * @return Sender's new balance if the debit is prepared, INSUFFICIENT_FUNDS otherwise
+     * @throws SQLException If a statement fails
+     */
+    static TransferResult prepareDebitInTable(PooledConnection pooled, long transferId, long fromNumber,
+                                              long amount) throws SQLException {
+        PreparedStatement debitCard = pooled.prepare(DEBIT_SQL);
+        debitCard.setLong(1, amount);
+        debitCard.setLong(2, fromNumber);
+        debitCard.setLong(3, amount);
+
+        if (SqlTracer.executeUpdate(debitCard, DEBIT_SQL) == 0) {
+            return TransferResult.INSUFFICIENT_FUNDS;
+        }
+
+        insertTransferIntent(pooled, transferId, fromNumber, -amount);
+
+        PreparedStatement selectBalance = pooled.prepare(SELECT_BALANCE_SQL);
+        selectBalance.setLong(1, fromNumber);
+
+        try (ResultSet rst = SqlTracer.executeQuery(selectBalance, SELECT_BALANCE_SQL)) {
+            rst.next();
+            return TransferResult.success(rst.getLong("balance"));
+        }
+    }
 
+    /**
+     * Prepares the receiver's side of a transfer from a card stored in another database:
+     * the credit is recorded as a pending intent of the transfer and only applied to
+     * the receiver's balance once the transfer is committed. The statements run in
+     * the caller's transaction.
+     *
+     * @param pooled Connection with an open transaction
+     * @param transferId Identifier of the transfer
+     * @param toNumber Credit card number upon which amount will be deposited
+     * @param amount Amount to be transferred
+     * @return Receiver's current balance if the credit is prepared, UNKNOWN_TARGET or BALANCE_OVERFLOW otherwise
+     * @throws SQLException If a statement fails
+     */
+    static TransferResult prepareCreditInTable(PooledConnection pooled, long transferId, long toNumber,
+                                               long amount) throws SQLException {
+        PreparedStatement selectBalance = pooled.prepare(SELECT_BALANCE_SQL);
+        selectBalance.setLong(1, toNumber);
+        long balance;
+
+        try (ResultSet rst = SqlTracer.executeQuery(selectBalance, SELECT_BALANCE_SQL)) {
+            if (!rst.next()) {
+                return TransferResult.UNKNOWN_TARGET;
+            }
+            balance = rst.getLong("balance");
+        }
+
+        if (balance > Money.highestBalanceFor(amount)) {
+            return TransferResult.BALANCE_OVERFLOW;
+        }
+
+        insertTransferIntent(pooled, transferId, toNumber, amount);
+        return TransferResult.success(balance);
+    }
+
+    /**
+     * Records the pending part of a transfer on one side
+     *
+     * @param pooled Connection with an open transaction
+     * @param transferId Identifier of the transfer
+     * @param cardNumber Card number of this side
+     * @param amount Amount still to be credited if positive, amount already debited if negative
+     * @throws SQLException If the statement fails
+     */
+    private static void insertTransferIntent(PooledConnection pooled, long transferId, long cardNumber,
+                                             long amount) throws SQLException {
+        PreparedStatement insertIntent = pooled.prepare(INSERT_INTENT_SQL);
+        insertIntent.setLong(1, transferId);
+        insertIntent.setLong(2, cardNumber);
+        insertIntent.setLong(3, amount);
+        SqlTracer.executeUpdate(insertIntent, INSERT_INTENT_SQL);
+    }
+
+    /**
+     * Settles one side of a prepared transfer. A committed transfer credits the
+     * pending amount to the receiver; an aborted one refunds the sender. The intent
+     * is deleted in the same transaction, so settling a side twice has no effect.
+     * Cards with a pending side cannot be deleted, but if the card was removed by
+     * other means the amount cannot be credited anywhere: it is reported on the
+     * error stream and the intent is dropped, so the side does not stay pending.
+     *
+     * @param pooled Connection with an open transaction
+     * @param transferId Identifier of the transfer
+     * @param isCommitted Indicates whether the transfer was committed or aborted
+     * @return True if the side is settled, false if the credit would overflow and the intent was kept
+     * @throws SQLException If a statement fails
+     */
+    static boolean settleTransferIntentInTable(PooledConnection pooled, long transferId,
+                                               boolean isCommitted) throws SQLException {
+        PreparedStatement selectIntent = pooled.prepare(SELECT_INTENT_SQL);
+        selectIntent.setLong(1, transferId);
+        long cardNumber;
+        long amount;
+
+        try (ResultSet rst = SqlTracer.executeQuery(selectIntent, SELECT_INTENT_SQL)) {
+            if (!rst.next()) {
                 return true;
+            }
+            cardNumber = rst.getLong("number");
+            amount = rst.getLong("amount");
+        }
 
-            } catch (SQLException e) {
-                if (con != null) {
-                    try {
-                        System.err.print("Transaction is being rolled back");
-                        con.rollback();
-                    } catch (SQLException exception) {
-                        exception.printStackTrace();
-                    }
+        long credit = isCommitted ? Math.max(amount, 0) : Math.max(-amount, 0);
+
+        if (credit > 0 && !creditBalance(pooled, cardNumber, credit)) {
+            PreparedStatement selectCard = pooled.prepare(EXISTS_SQL);
+            selectCard.setLong(1, cardNumber);
+
+            try (ResultSet rst = SqlTracer.executeQuery(selectCard, EXISTS_SQL)) {
+                if (rst.next()) {
+                    return false;
                 }
             }
+
+            System.err.println("Transfer " + transferId + " could not credit " + credit
+                    + " to card " + cardNumber + ", which no longer exists");
+        }
+
+        PreparedStatement deleteIntent = pooled.prepare(DELETE_INTENT_SQL);
+        deleteIntent.setLong(1, transferId);
+        SqlTracer.executeUpdate(deleteIntent, DELETE_INTENT_SQL);
+        return true;
+    }
+
+    /**
+     * Gets the identifiers of every transfer with a side still pending in this database
+     *
+     * @param pooled Database connection
+     * @return List of transfer identifiers
+     * @throws SQLException If the statement fails
+     */
+    static List<Long> selectTransferIntentIds(PooledConnection pooled) throws SQLException {
+        List<Long> transferIds = new ArrayList<>();
+
+        try (ResultSet rst = SqlTracer.executeQuery(pooled.prepare(SELECT_INTENT_IDS_SQL), SELECT_INTENT_IDS_SQL)) {
+            while (rst.next()) {
+                transferIds.add(rst.getLong("id"));
+            }
+        }
+        return transferIds;
+    }
+
+    /**
+     * Starts a transaction that takes the database write lock right away,
+     * so that no statement of the transaction can fail for lack of it
+     *
+     * @param pooled Connection in auto-commit mode
+     * @throws SQLException If the lock cannot be taken
+     */
+    static void beginImmediateTransaction(PooledConnection pooled) throws SQLException {
+        SqlTracer.execute(pooled.prepare(BEGIN_IMMEDIATE_SQL), BEGIN_IMMEDIATE_SQL);
+    }
+
+    /**
+     * Commits a transaction started with beginImmediateTransaction
+     *
+     * @param pooled Connection with an open transaction
+     * @throws SQLException If the transaction cannot be committed
+     */
+    static void commitTransaction(PooledConnection pooled) throws SQLException {
+        SqlTracer.execute(pooled.prepare(COMMIT_SQL), COMMIT_SQL);
+    }
+
+    /**
+     * Rolls back a transaction started with beginImmediateTransaction
+     *
+     * @param pooled Connection with an open transaction
+     */
+    static void rollbackTransaction(PooledConnection pooled) {
+        try {
+            pooled.prepare(ROLLBACK_SQL).execute();
         } catch (SQLException e) {
+            System.err.print("Transaction could not be rolled back");
             e.printStackTrace();
         }
+    }
 
-        return false;
+    /**
+     * Marks the current point of a transaction so that the statements
+     * that follow can be undone without undoing the whole transaction
+     *
+     * @param pooled Connection with an open transaction
+     * @throws SQLException If the savepoint cannot be created
+     */
+    static void setSavepoint(PooledConnection pooled) throws SQLException {
+        pooled.prepare(SAVEPOINT_SQL).execute();
+    }
+
+    /**
+     * Keeps the statements run since the last savepoint as part of the transaction
+     *
+     * @param pooled Connection with an open transaction
+     * @throws SQLException If the savepoint cannot be released
+     */
+    static void releaseSavepoint(PooledConnection pooled) throws SQLException {
+        pooled.prepare(RELEASE_SQL).execute();
+    }
+
+    /**
+     * Undoes the statements run since the last savepoint and releases it
+     *
+     * @param pooled Connection with an open transaction
+     * @throws SQLException If the savepoint cannot be rolled back
+     */
+    static void rollbackToSavepoint(PooledConnection pooled) throws SQLException {
+        pooled.prepare(ROLLBACK_TO_SQL).execute();
+        pooled.prepare(RELEASE_SQL).execute();
     }
 
     /**
      * Deletes the entry that corresponds to the specified card number
+     * as part of the caller's transaction, unless a transfer between
+     * databases still has a side pending on the card
      *
+     * @param pooled Database connection
      * @param cardNumber Card number
-     * @param dataSource SQLite data source
-     * @return True if row was deleted successfully in table, false otherwise
+     * @return True if a row was deleted, false otherwise
+     * @throws SQLException If a statement fails
      */
-    static boolean deleteAccountInTable(SQLiteDataSource dataSource, String cardNumber) {
-        try (Connection con = dataSource.getConnection()) {
-            String deleteCardSQL = "DELETE FROM card WHERE number = ?";
+    static boolean deleteAccountInTable(PooledConnection pooled, long cardNumber) throws SQLException {
+        long start = System.nanoTime();
 
-            try (PreparedStatement deleteCard = con.prepareStatement(deleteCardSQL)) {
-                deleteCard.setString(1, cardNumber);
-                deleteCard.executeUpdate();
+        try {
+            PreparedStatement selectIntent = pooled.prepare(INTENT_EXISTS_SQL);
+            selectIntent.setLong(1, cardNumber);
 
-                return true;
-            } catch (SQLException e) {
-                e.printStackTrace();
+            try (ResultSet rst = SqlTracer.executeQuery(selectIntent, INTENT_EXISTS_SQL)) {
+                if (rst.next()) {
+                    return false;
+                }
             }
+
+            PreparedStatement deleteCard = pooled.prepare(DELETE_SQL);
+            deleteCard.setLong(1, cardNumber);
+
+            return SqlTracer.executeUpdate(deleteCard, DELETE_SQL) > 0;
         } catch (SQLException e) {
-            e.printStackTrace();
+            Metrics.recordError(Operation.DELETE, e);
+            throw e;
+        } finally {
+            Metrics.record(Operation.DELETE, start);
         }
-
-        return false;
     }
 }
@@ -0,0 +1,171 @@
+package banking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This program keeps the decisions of the transfers between
+ * database shards. A transfer is committed once its 'COMMIT'
+ * line is synced to disk, and an 'END' line follows once both
+ * shards have settled it. Transfers with no 'COMMIT' line are
+ * aborted, so only commits have to be written before the
+ * shards are told. When the log is opened, the transfers that
+ * were committed but never ended are read back so that the
+ * shards can finish settling them.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+final class RecoveryLog implements AutoCloseable {
+
+    private static final String COMMIT = "COMMIT";
+    private static final String END = "END";
+
+    /* The log is emptied once it grows past this size and no transfer is unsettled */
+    private static final long COMPACTION_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final Set<Long> unfinished;
+    private long pendingCount;
+
+    /**
+     * Custom constructor
+     *
+     * @param path Path of the log file, created if it does not exist
+     * @throws IOException If the log cannot be read or opened
+     */
+    RecoveryLog(Path path) throws IOException {
+        this.unfinished = readUnfinished(path);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.pendingCount = unfinished.size();
+    }
+
+    /**
+     * Reads the transfers that were committed but never ended
+     *
+     * @param path Path of the log file
+     * @return Set of transfer identifiers
+     * @throws IOException If the log cannot be read
+     */
+    private static Set<Long> readUnfinished(Path path) throws IOException {
+        Set<Long> transferIds = new HashSet<>();
+
+        if (!Files.exists(path)) {
+            return transferIds;
+        }
+
+        String content = new String(Files.readAllBytes(path), StandardCharsets.US_ASCII);
+
+        /* A last line cut short by a crash was never synced, so its transfer was never committed */
+        for (String line : content.substring(0, content.lastIndexOf('\n') + 1).split("\n")) {
+            String[] record = line.split(" ");
+
+            if (record.length != 2) {
+                continue;
+            }
+
+            try {
+                if (COMMIT.equals(record[0])) {
+                    transferIds.add(Long.parseLong(record[1]));
+                } else if (END.equals(record[0])) {
+                    transferIds.remove(Long.parseLong(record[1]));
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Skipping unreadable recovery log line: " + line);
+            }
+        }
+        return transferIds;
+    }
+
+    /**
+     * Gets the transfers that were committed but not settled when the log was opened
+     *
+     * @return Set of transfer identifiers
+     */
+    Set<Long> getUnfinished() {
+        return unfinished;
+    }
+
+    /**
+     * Commits a transfer by syncing its decision to disk
+     *
+     * @param transferId Identifier of the transfer
+     * @return True if the transfer is committed, false if the decision could not be written
+     */
+    synchronized boolean commit(long transferId) {
+        try {
+            append(COMMIT + " " + transferId + "\n");
+            channel.force(false);
+            pendingCount++;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Records that both shards settled a committed transfer. The record does not
+     * need to be synced: if it is lost, settling the transfer again has no effect.
+     *
+     * @param transferId Identifier of the transfer
+     */
+    synchronized void end(long transferId) {
+        try {
+            append(END + " " + transferId + "\n");
+            pendingCount--;
+
+            if (pendingCount == 0 && channel.size() > COMPACTION_BYTES) {
+                channel.truncate(0);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Empties the log once every transfer it holds is settled
+     *
+     * @throws IOException If the log cannot be truncated
+     */
+    synchronized void clear() throws IOException {
+        channel.truncate(0);
+        channel.force(false);
+        unfinished.clear();
+        pendingCount = 0;
+    }
+
+    /**
+     * Writes a record at the end of the log
+     *
+     * @param record Line to write
+     * @throws IOException If the line cannot be written
+     */
+    private void append(String record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.US_ASCII));
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Closes the log file
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package banking;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static banking.Processor.*;
+
+/**
+ * This program runs database transactions that compete for
+ * the write lock, and decides how often and after how long a
+ * transaction that lost the race is tried again. Each attempt
+ * takes the lock up front with an immediate transaction. Delays grow exponentially and are jittered so that
+ * competing callers do not retry in lockstep, and no attempt
+ * is started once the deadline has passed. Connections driven
+ * by a policy only wait briefly for the lock inside SQLite, so
+ * the waiting is left to the policy rather than to the
+ * profile's busy timeout.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+final class RetryPolicy {
+
+    static final int DEFAULT_MAX_ATTEMPTS = 50;
+    static final long DEFAULT_BASE_DELAY_MILLIS = 1;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 50;
+    static final long DEFAULT_DEADLINE_MILLIS = 2_000;
+    static final int DEFAULT_BUSY_TIMEOUT_MILLIS = 5;
+
+    static final RetryPolicy DEFAULT = new RetryPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS,
+            DEFAULT_MAX_DELAY_MILLIS, DEFAULT_DEADLINE_MILLIS, DEFAULT_BUSY_TIMEOUT_MILLIS);
+    static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0, 0);
+
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final long deadlineNanos;
+    private final int busyTimeoutMillis;
+
+    /**
+     * Custom constructor
+     *
+     * @param maxAttempts Maximum number of attempts, including the first one
+     * @param baseDelayMillis Upper bound of the delay before the first retry
+     * @param maxDelayMillis Upper bound of the delay before any retry
+     * @param deadlineMillis Time after the first attempt past which no retry is started
+     * @param busyTimeoutMillis Time each attempt may wait inside SQLite for the lock before failing as busy
+     */
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long deadlineMillis,
+                int busyTimeoutMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is required");
+        }
+        if (baseDelayMillis < 0 || maxDelayMillis < 0 || deadlineMillis < 0 || busyTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Delays and timeouts must not be negative");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = TimeUnit.MILLISECONDS.toNanos(baseDelayMillis);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        this.busyTimeoutMillis = busyTimeoutMillis;
+    }
+
+    /**
+     * Statements run inside one attempt's transaction
+     *
+     * @param <T> Type of the result
+     */
+    interface Transaction<T> {
+
+        /**
+         * Runs the statements of the transaction
+         *
+         * @param pooled Connection with an open transaction
+         * @return Result of the transaction
+         * @throws SQLException If a statement fails
+         */
+        T apply(PooledConnection pooled) throws SQLException;
+    }
+
+    /**
+     * Runs a transaction and commits it. If the database is busy, the attempt
+     * is rolled back and the whole transaction is run again after a delay,
+     * for as long as this policy allows.
+     *
+     * @param pool Database connection pool
+     * @param transaction Statements of the transaction
+     * @param retries Counts the attempts that are started again
+     * @param <T> Type of the result
+     * @return Result of the committed attempt
+     * @throws SQLException If the transaction fails, or the database stays busy for longer than this policy allows
+     */
+    <T> T execute(ConnectionPool pool, Transaction<T> transaction, LongAdder retries) throws SQLException {
+        long start = System.nanoTime();
+        int attempts = 0;
+
+        while (true) {
+            attempts++;
+
+            try (PooledConnection pooled = pool.borrow()) {
+                pooled.setBusyTimeout(busyTimeoutMillis);
+                beginImmediateTransaction(pooled);
+                boolean isCommitted = false;
+
+                try {
+                    T result = transaction.apply(pooled);
+
+                    commitTransaction(pooled);
+                    isCommitted = true;
+                    return result;
+                } finally {
+                    if (!isCommitted) {
+                        rollbackTransaction(pooled);
+                    }
+                }
+            } catch (SQLException e) {
+                if (!isBusy(e) || !canRetry(attempts, start)) {
+                    throw e;
+                }
+            }
+
+            retries.increment();
+            LockSupport.parkNanos(backoffNanos(attempts));
+        }
+    }
+
+    /**
+     * Indicates whether an error means the database was locked by another writer
+     *
+     * @param e Error reported by the database
+     * @return True if operation may succeed when tried again, false otherwise
+     */
+    static boolean isBusy(SQLException e) {
+        int code = e.getErrorCode() & 0xFF;
+        String message = String.valueOf(e.getMessage());
+
+        return code == SQLITE_BUSY || code == SQLITE_LOCKED
+                || message.contains("SQLITE_BUSY") || message.contains("database is locked");
+    }
+
+    /**
+     * Indicates whether another attempt may be started
+     *
+     * @param attempts Number of attempts made so far
+     * @param startNanos Value of System.nanoTime() at the first attempt
+     * @return True if operation may be retried, false otherwise
+     */
+    private boolean canRetry(int attempts, long startNanos) {
+        return attempts < maxAttempts && System.nanoTime() - startNanos < deadlineNanos;
+    }
+
+    /**
+     * Computes a random delay before the next attempt, between zero and
+     * the base delay doubled once per failed attempt, capped at the maximum delay
+     *
+     * @param attempts Number of attempts made so far
+     * @return Delay in nanoseconds
+     */
+    private long backoffNanos(int attempts) {
+        long bound = Math.min(maxDelayNanos, baseDelayNanos << Math.min(attempts - 1, 30));
+
+        return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+}
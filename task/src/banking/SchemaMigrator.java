@@ -0,0 +1,109 @@
+package banking;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This program brings the database schema up to date. Each
+ * migration upgrades the schema by one version and the
+ * current version is stored in the database file itself,
+ * so existing files are upgraded in place and no DDL runs
+ * once the schema is current.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class SchemaMigrator {
+
+    /* Statements that upgrade the schema from version i to version i + 1 */
+    private static final String[][] MIGRATIONS = {
+            {
+                    "CREATE TABLE IF NOT EXISTS card ("
+                            + "id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + "number TEXT, "
+                            + "pin TEXT, "
+                            + "balance INTEGER DEFAULT 0);"
+            },
+            {
+                    "CREATE UNIQUE INDEX IF NOT EXISTS card_number_idx ON card (number);",
+                    "CREATE INDEX IF NOT EXISTS card_number_pin_idx ON card (number, pin);"
+            },
+            {
+                    "CREATE TABLE IF NOT EXISTS account_sequence ("
+                            + "id INTEGER PRIMARY KEY CHECK (id = 0), "
+                            + "next_value INTEGER NOT NULL, "
+                            + "permutation_key INTEGER NOT NULL);",
+                    "INSERT OR IGNORE INTO account_sequence (id, next_value, permutation_key) "
+                            + "VALUES (0, 0, random());"
+            },
+            {
+                    "CREATE TABLE IF NOT EXISTS transfer_intent ("
+                            + "id INTEGER PRIMARY KEY, "
+                            + "number INTEGER NOT NULL, "
+                            + "amount INTEGER NOT NULL);"
+            }
+    };
+
+    /**
+     * Gets the schema version this program expects
+     *
+     * @return Integer value
+     */
+    static int getLatestVersion() {
+        return MIGRATIONS.length;
+    }
+
+    /**
+     * Applies every migration the database has not seen yet. Each
+     * migration runs in its own transaction together with the
+     * version bump, so an interrupted upgrade resumes where it stopped.
+     *
+     * @param pool Database connection pool
+     * @return True if schema is current, false otherwise
+     */
+    static boolean migrate(ConnectionPool pool) {
+        try (PooledConnection pooled = pool.borrow()) {
+            Connection con = pooled.getConnection();
+
+            try (Statement statement = con.createStatement()) {
+                int version = getVersion(statement);
+
+                while (version < getLatestVersion()) {
+                    con.setAutoCommit(false);
+
+                    for (String sql : MIGRATIONS[version]) {
+                        statement.executeUpdate(sql);
+                    }
+
+                    version++;
+                    statement.executeUpdate("PRAGMA user_version = " + version + ";");
+                    con.commit();
+                    con.setAutoCommit(true);
+                }
+
+                return true;
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the schema version recorded in the database file
+     *
+     * @param statement Statement on an open connection
+     * @return Integer value
+     * @throws SQLException If the version cannot be read
+     */
+    private static int getVersion(Statement statement) throws SQLException {
+        try (ResultSet rst = statement.executeQuery("PRAGMA user_version;")) {
+            return rst.next() ? rst.getInt(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package banking;
+
+/**
+ * This program describes where a menu session reads the
+ * customer's input from and writes its screens to, so that the
+ * same menu can be driven from the console, from a socket or
+ * from memory.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+interface SessionIO {
+
+    /**
+     * Waits for the next whitespace-separated token entered by the customer.
+     * Anything written so far is flushed first.
+     *
+     * @return A String, null if the input has ended
+     */
+    String readToken();
+
+    /**
+     * Writes text to the customer
+     *
+     * @param text Text to write
+     */
+    void print(String text);
+
+    /**
+     * Writes text followed by a line break to the customer
+     *
+     * @param text Text to write
+     */
+    default void println(String text) {
+        print(text + "\n");
+    }
+
+    /**
+     * Sends anything written so far to the customer
+     */
+    void flush();
+}
@@ -0,0 +1,530 @@
+package banking;
+
+import org.sqlite.SQLiteDataSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static banking.Processor.*;
+
+/**
+ * This program stores the cards across one or more SQLite
+ * files, called shards, so that writers to different shards
+ * do not wait on each other's database lock. A card lives in
+ * the shard picked by a hash of its number, and every shard
+ * has its own connection pool and write queue. Card numbers
+ * come from the account sequence of the first shard, so they
+ * stay unique across shards.
+ *
+ * A transfer between two shards uses two phases. The sender's
+ * shard takes the amount out of the balance and the receiver's
+ * shard records the pending credit, each in its own commit.
+ * The transfer is then committed by syncing its decision to a
+ * recovery log, after which both shards settle their side.
+ * Transfers that never reached the log are aborted and the
+ * sender is refunded. Sides left unsettled by a crash are
+ * settled the next time the shards are opened.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class ShardedStore implements CardRepository {
+
+    private static final int MAX_INSERT_ATTEMPTS = 3;
+    private static final int COORDINATOR_THREADS = 64;
+    private static final long CLOSE_TIMEOUT_MILLIS = 1_000;
+
+    private final Shard[] shards;
+    private final AccountAllocator allocator;
+    private final RecoveryLog log;
+    private final ExecutorService coordinator;
+    private final boolean ownsPools;
+
+    private final AtomicLong transferIds = new AtomicLong(System.currentTimeMillis() << 20);
+    private final LongAdder crossShardCount = new LongAdder();
+    private final LongAdder inDoubtCount = new LongAdder();
+
+    /**
+     * Custom constructor for a store kept in a single database
+     *
+     * @param pool Database connection pool, left open when the store is closed
+     */
+    ShardedStore(ConnectionPool pool) {
+        this(new ConnectionPool[]{pool}, null, false, RetryPolicy.DEFAULT);
+    }
+
+    /**
+     * Custom constructor. Any transfer left unsettled in the shards is settled
+     * before the constructor returns.
+     *
+     * @param pools Connection pool of each shard, on databases whose schema is current
+     * @param logPath Path of the recovery log, null if there is a single shard
+     * @param ownsPools Indicates whether the pools are closed along with the store
+     * @param policy Retry policy for writes that find a shard busy
+     * @throws IllegalStateException If the unsettled transfers cannot be recovered
+     */
+    private ShardedStore(ConnectionPool[] pools, Path logPath, boolean ownsPools, RetryPolicy policy) {
+        this.shards = new Shard[pools.length];
+        this.allocator = new AccountAllocator(pools[0]);
+        this.ownsPools = ownsPools;
+
+        for (int i = 0; i < pools.length; i++) {
+            shards[i] = new Shard(pools[i], policy);
+        }
+
+        try {
+            this.log = logPath == null ? null : new RecoveryLog(logPath);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the recovery log", e);
+        }
+
+        this.coordinator = log == null ? null : VirtualThreads.newExecutor(COORDINATOR_THREADS);
+
+        if (log != null) {
+            recover();
+        }
+    }
+
+    /**
+     * Opens the shards of a store, creating their files and bringing their schema
+     * up to date. A store with a single shard is kept in the specified file itself.
+     *
+     * @param fileName Database file name, e.g. 'card.s3db'
+     * @param profile SQLite settings of every shard
+     * @param poolSize Maximum number of open connections per shard
+     * @param shardCount Number of shards
+     * @return A ShardedStore, null if a shard could not be opened or recovered
+     */
+    static ShardedStore open(String fileName, StorageProfile profile, int poolSize, int shardCount) {
+        return open(fileName, profile, poolSize, shardCount, RetryPolicy.DEFAULT);
+    }
+
+    /**
+     * Opens the shards of a store, creating their files and bringing their schema
+     * up to date. A store with a single shard is kept in the specified file itself.
+     *
+     * @param fileName Database file name, e.g. 'card.s3db'
+     * @param profile SQLite settings of every shard
+     * @param poolSize Maximum number of open connections per shard
+     * @param shardCount Number of shards
+     * @param policy Retry policy for writes that find a shard busy
+     * @return A ShardedStore, null if a shard could not be opened or recovered
+     */
+    static ShardedStore open(String fileName, StorageProfile profile, int poolSize, int shardCount,
+                             RetryPolicy policy) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Number of shards must be positive: " + shardCount);
+        }
+
+        ConnectionPool[] pools = new ConnectionPool[shardCount];
+
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                SQLiteDataSource dataSource = new SQLiteDataSource();
+                dataSource.setUrl("jdbc:sqlite:" + getShardFileName(fileName, i, shardCount));
+                pools[i] = new ConnectionPool(dataSource, profile, poolSize);
+
+                if (!SchemaMigrator.migrate(pools[i])) {
+                    closePools(pools);
+                    return null;
+                }
+            }
+
+            return new ShardedStore(pools, shardCount == 1 ? null : Paths.get(getLogFileName(fileName, shardCount)),
+                    true, policy);
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+            closePools(pools);
+        }
+        return null;
+    }
+
+    /**
+     * Gets the file of one shard. The shard count is part of the name, so files
+     * written with one count are never read with another.
+     *
+     * @param fileName Database file name, e.g. 'card.s3db'
+     * @param shard Shard index
+     * @param shardCount Number of shards
+     * @return The file name itself for a single shard, e.g. 'card-2of4.s3db' otherwise
+     */
+    static String getShardFileName(String fileName, int shard, int shardCount) {
+        if (shardCount == 1) {
+            return fileName;
+        }
+        return insertBeforeExtension(fileName, "-" + shard + "of" + shardCount);
+    }
+
+    /**
+     * Gets the recovery log of the shards of a store
+     *
+     * @param fileName Database file name, e.g. 'card.s3db'
+     * @param shardCount Number of shards
+     * @return A String, e.g. 'card-4shards.log'
+     */
+    static String getLogFileName(String fileName, int shardCount) {
+        int dot = fileName.lastIndexOf('.');
+        return (dot > 0 ? fileName.substring(0, dot) : fileName) + "-" + shardCount + "shards.log";
+    }
+
+    /**
+     * Inserts a suffix between a file name and its extension
+     *
+     * @param fileName File name
+     * @param suffix Text to insert
+     * @return A String
+     */
+    private static String insertBeforeExtension(String fileName, String suffix) {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) + suffix + fileName.substring(dot) : fileName + suffix;
+    }
+
+    /**
+     * Settles every side of a transfer still pending in the shards: committed
+     * transfers are credited and the others refunded. The log is emptied if
+     * every side could be settled.
+     */
+    private void recover() {
+        Set<Long> committed = log.getUnfinished();
+        boolean isSettled = true;
+
+        for (int i = 0; i < shards.length; i++) {
+            try (PooledConnection pooled = shards[i].pool.borrow()) {
+                beginImmediateTransaction(pooled);
+
+                try {
+                    for (long transferId : selectTransferIntentIds(pooled)) {
+                        if (!settleTransferIntentInTable(pooled, transferId, committed.contains(transferId))) {
+                            System.err.println("Transfer " + transferId + " could not be settled on shard " + i);
+                            isSettled = false;
+                        }
+                    }
+                    commitTransaction(pooled);
+                } catch (SQLException e) {
+                    rollbackTransaction(pooled);
+                    throw e;
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not recover the transfers of shard " + i, e);
+            }
+        }
+
+        if (isSettled) {
+            try {
+                log.clear();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not empty the recovery log", e);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of shards
+     *
+     * @return Integer value
+     */
+    int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Gets the shard a card number is stored in
+     *
+     * @param cardNumber Card number
+     * @return Integer between 0 and the number of shards - 1
+     */
+    int shardOf(long cardNumber) {
+        if (shards.length == 1) {
+            return 0;
+        }
+        return (int) (((cardNumber * 0x9E3779B97F4A7C15L) >>> 1) % shards.length);
+    }
+
+    /**
+     * Gets the connection pool of a shard
+     *
+     * @param shard Shard index
+     * @return A ConnectionPool
+     */
+    ConnectionPool getPool(int shard) {
+        return shards[shard].pool;
+    }
+
+    /**
+     * Gets the shard of a card number
+     *
+     * @param cardNumber Card number
+     * @return A Shard
+     */
+    private Shard shardFor(long cardNumber) {
+        return shards[shardOf(cardNumber)];
+    }
+
+    /**
+     * Looks up a card by its number and PIN
+     *
+     * @param cardNumber Card number
+     * @param pin Card PIN
+     * @return Card object if entry is found, null otherwise
+     */
+    @Override
+    public Card findCard(long cardNumber, String pin) {
+        return selectCardFromTable(shardFor(cardNumber).pool, cardNumber, pin);
+    }
+
+    /**
+     * Looks up a card by its number
+     *
+     * @param cardNumber Card number
+     * @return Card object if entry is found, null otherwise
+     */
+    @Override
+    public Card findCard(long cardNumber) {
+        return selectCardFromTable(shardFor(cardNumber).pool, cardNumber);
+    }
+
+    /**
+     * Indicates whether a card with the specified number exists
+     *
+     * @param cardNumber Card number
+     * @return True if card exists, false otherwise
+     */
+    @Override
+    public boolean cardExists(long cardNumber) {
+        return cardExistsInTable(shardFor(cardNumber).pool, cardNumber);
+    }
+
+    /**
+     * Creates a new card and stores it in its shard
+     *
+     * @return The stored card, null if it could not be stored
+     */
+    @Override
+    public Card issueCard() {
+        for (int attempt = 0; attempt < MAX_INSERT_ATTEMPTS; attempt++) {
+            Card newCard = new Card(allocator);
+
+            if (await(shardFor(newCard.getCardNumber()).writer.insertCard(newCard), false)) {
+                return newCard;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Queues the addition of an amount to the balance of a card
+     *
+     * @param cardNumber Card number
+     * @param amount Amount to be added
+     * @return Future completed with the new balance, empty if the deposit was refused
+     */
+    @Override
+    public CompletableFuture<OptionalLong> deposit(long cardNumber, long amount) {
+        return shardFor(cardNumber).writer.deposit(cardNumber, amount);
+    }
+
+    /**
+     * Queues the deletion of a card. A card with a side of a transfer between
+     * shards still pending is kept, so the side can always be settled.
+     *
+     * @param cardNumber Card number
+     * @return Future completed with true if the card was deleted, false otherwise
+     */
+    @Override
+    public CompletableFuture<Boolean> deleteAccount(long cardNumber) {
+        return shardFor(cardNumber).writer.deleteAccount(cardNumber);
+    }
+
+    /**
+     * Transfers an amount between two cards. Cards in the same shard are handled
+     * by that shard's write queue; cards in different shards by a two-phase transfer.
+     *
+     * @param fromNumber Credit card number from which amount will be withdrawn
+     * @param toNumber Credit card number upon which amount will be deposited
+     * @param amount Amount to be transferred
+     * @return Future completed with the outcome of the transfer
+     */
+    @Override
+    public CompletableFuture<TransferResult> transfer(long fromNumber, long toNumber, long amount) {
+        Shard source = shardFor(fromNumber);
+        Shard target = shardFor(toNumber);
+
+        if (source == target) {
+            return source.writer.transfer(fromNumber, toNumber, amount);
+        } else if (amount <= 0) {
+            return CompletableFuture.completedFuture(TransferResult.INVALID_AMOUNT);
+        }
+
+        return CompletableFuture.supplyAsync(() -> transferAcrossShards(source, target, fromNumber, toNumber, amount),
+                coordinator);
+    }
+
+    /**
+     * Carries out the two phases of a transfer between shards. Both sides are
+     * prepared first; the transfer is committed only if both are prepared and the
+     * decision reaches the recovery log, and each side is then settled.
+     *
+     * @param source Shard of the sender
+     * @param target Shard of the receiver
+     * @param fromNumber Credit card number from which amount will be withdrawn
+     * @param toNumber Credit card number upon which amount will be deposited
+     * @param amount Amount to be transferred
+     * @return Outcome of the transfer
+     */
+    private TransferResult transferAcrossShards(Shard source, Shard target, long fromNumber, long toNumber,
+                                                long amount) {
+        long transferId = transferIds.incrementAndGet();
+        crossShardCount.increment();
+
+        TransferResult debit = await(source.writer.submit(
+                pooled -> prepareDebitInTable(pooled, transferId, fromNumber, amount),
+                TransferResult::isSuccess, TransferResult.FAILED), TransferResult.FAILED);
+
+        if (!debit.isSuccess()) {
+            return debit;
+        }
+
+        TransferResult credit = await(target.writer.submit(
+                pooled -> prepareCreditInTable(pooled, transferId, toNumber, amount),
+                TransferResult::isSuccess, TransferResult.FAILED), TransferResult.FAILED);
+
+        boolean isCommitted = credit.isSuccess() && log.commit(transferId);
+
+        CompletableFuture<Boolean> sourceSettled = settle(source, transferId, isCommitted);
+        CompletableFuture<Boolean> targetSettled = credit.isSuccess()
+                ? settle(target, transferId, isCommitted)
+                : CompletableFuture.completedFuture(true);
+        boolean isSettled = await(sourceSettled, false) & await(targetSettled, false);
+
+        if (!isSettled) {
+            inDoubtCount.increment();
+        } else if (isCommitted) {
+            log.end(transferId);
+        }
+
+        if (isCommitted) {
+            return debit;
+        }
+        return credit.isSuccess() ? TransferResult.FAILED : credit;
+    }
+
+    /**
+     * Queues the settlement of one side of a transfer between shards
+     *
+     * @param shard Shard of the side
+     * @param transferId Identifier of the transfer
+     * @param isCommitted Indicates whether the transfer was committed or aborted
+     * @return Future completed with true if the side is settled, false otherwise
+     */
+    private static CompletableFuture<Boolean> settle(Shard shard, long transferId, boolean isCommitted) {
+        return shard.writer.submit(pooled -> settleTransferIntentInTable(pooled, transferId, isCommitted),
+                Boolean::booleanValue, false);
+    }
+
+    /**
+     * Waits for the result of a queued operation
+     *
+     * @param future Result of the operation
+     * @param failedValue Value returned if the operation could not be queued
+     * @param <T> Type of the result
+     * @return Result of the operation, failedValue if it failed
+     */
+    private static <T> T await(CompletableFuture<T> future, T failedValue) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            e.printStackTrace();
+        }
+        return failedValue;
+    }
+
+    /**
+     * Gets the number of connections of every shard together
+     *
+     * @return Integer value
+     */
+    @Override
+    public int getParallelism() {
+        return shards[0].pool.getMaxSize() * shards.length;
+    }
+
+    /**
+     * Gets the number of transfers between shards and of those left unsettled
+     *
+     * @return A String
+     */
+    @Override
+    public String getStatistics() {
+        return "Shards: " + shards.length
+                + ", cross-shard transfers: " + crossShardCount.sum()
+                + ", unsettled: " + inDoubtCount.sum();
+    }
+
+    /**
+     * Waits for the transfers in progress, then closes every write queue,
+     * the recovery log and, if they were opened by the store, the pools
+     */
+    @Override
+    public void close() {
+        if (coordinator != null) {
+            coordinator.shutdown();
+
+            try {
+                coordinator.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (Shard shard : shards) {
+            shard.writer.close();
+        }
+
+        if (log != null) {
+            log.close();
+        }
+
+        if (ownsPools) {
+            for (Shard shard : shards) {
+                shard.pool.close();
+            }
+        }
+    }
+
+    /**
+     * Closes the pools opened so far
+     *
+     * @param pools Pools, null past the last one opened
+     */
+    private static void closePools(ConnectionPool[] pools) {
+        for (ConnectionPool pool : pools) {
+            if (pool != null) {
+                pool.close();
+            }
+        }
+    }
+
+    /**
+     * Storage of one shard
+     */
+    private static final class Shard {
+        private final ConnectionPool pool;
+        private final WriteQueue writer;
+
+        private Shard(ConnectionPool pool, RetryPolicy policy) {
+            this.pool = pool;
+            this.writer = new WriteQueue(pool, policy, WriteQueue.DEFAULT_CAPACITY, WriteQueue.DEFAULT_MAX_BATCH_SIZE);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package banking;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This program runs a session's input and output over a TCP
+ * connection and closes the connection when the session ends.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class SocketSessionIO extends StreamSessionIO {
+
+    private final Socket socket;
+
+    /**
+     * Custom constructor
+     *
+     * @param socket Connection of the session
+     * @throws IOException If the streams of the connection cannot be opened
+     */
+    SocketSessionIO(Socket socket) throws IOException {
+        super(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8),
+                new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        this.socket = socket;
+    }
+
+    /**
+     * Flushes the output and closes the connection
+     */
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // The client is gone already
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package banking;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This program traces the statements the bank runs against the
+ * database. Once enabled, every statement is timed; a sample of
+ * them is written to the trace log with its text, number of bind
+ * parameters, rows affected and duration, and every statement
+ * that takes longer than the slow-query threshold is written to
+ * the log along with its query plan. A plan is read with 'EXPLAIN
+ * QUERY PLAN' the first time a statement is slow and reused after
+ * that. Until tracing is enabled, statements run untimed.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+final class SqlTracer {
+
+    static final long DEFAULT_SLOW_QUERY_MILLIS = 50;
+
+    private static final String EXPLAIN_SQL = "EXPLAIN QUERY PLAN ";
+    private static final int NO_ROWS = -1;
+
+    private static final ConcurrentMap<String, String> PLANS = new ConcurrentHashMap<>();
+
+    private static volatile boolean isEnabled;
+    private static volatile double sampleRate;
+    private static volatile long slowQueryNanos;
+    private static volatile PrintStream log;
+
+    private SqlTracer() {
+    }
+
+    /**
+     * Starts tracing statements
+     *
+     * @param rate Share of the statements written to the log, from 0 (only slow ones) to 1 (all)
+     * @param slowQueryMillis Duration from which a statement is logged as slow
+     * @param out Stream the trace log is written to
+     */
+    static void enable(double rate, long slowQueryMillis, PrintStream out) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1: " + rate);
+        }
+
+        sampleRate = rate;
+        slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+        log = out;
+        isEnabled = true;
+    }
+
+    /**
+     * Runs an 'INSERT', 'UPDATE' or 'DELETE' statement and traces it
+     *
+     * @param statement Statement with its parameters bound
+     * @param sql Text of the statement
+     * @return Number of rows affected
+     * @throws SQLException If the statement fails
+     */
+    static int executeUpdate(PreparedStatement statement, String sql) throws SQLException {
+        if (!isEnabled) {
+            return statement.executeUpdate();
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            int rows = statement.executeUpdate();
+            trace(statement, sql, rows, System.nanoTime() - start, null);
+            return rows;
+        } catch (SQLException e) {
+            trace(statement, sql, NO_ROWS, System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a 'SELECT' statement and traces it. The duration covers the
+     * statement up to its first row.
+     *
+     * @param statement Statement with its parameters bound
+     * @param sql Text of the statement
+     * @return Rows of the query
+     * @throws SQLException If the statement fails
+     */
+    static ResultSet executeQuery(PreparedStatement statement, String sql) throws SQLException {
+        if (!isEnabled) {
+            return statement.executeQuery();
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            ResultSet rst = statement.executeQuery();
+            trace(statement, sql, NO_ROWS, System.nanoTime() - start, null);
+            return rst;
+        } catch (SQLException e) {
+            trace(statement, sql, NO_ROWS, System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a statement that returns nothing, such as 'COMMIT', and traces it
+     *
+     * @param statement Statement to run
+     * @param sql Text of the statement
+     * @throws SQLException If the statement fails
+     */
+    static void execute(PreparedStatement statement, String sql) throws SQLException {
+        if (!isEnabled) {
+            statement.execute();
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            statement.execute();
+            trace(statement, sql, NO_ROWS, System.nanoTime() - start, null);
+        } catch (SQLException e) {
+            trace(statement, sql, NO_ROWS, System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a statement to the log if it was slow or falls in the sample
+     *
+     * @param statement Statement that ran
+     * @param sql Text of the statement
+     * @param rows Number of rows affected, NO_ROWS if not known
+     * @param nanos Duration in nanoseconds
+     * @param error Exception the statement failed with, null if it succeeded
+     */
+    private static void trace(PreparedStatement statement, String sql, int rows, long nanos, SQLException error) {
+        boolean isSlow = nanos >= slowQueryNanos;
+
+        if (!isSlow && (sampleRate == 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return;
+        }
+
+        StringBuilder entry = new StringBuilder(isSlow ? "slow-query " : "sql ")
+                .append(TimeUnit.NANOSECONDS.toMicros(nanos)).append("us")
+                .append(" binds=").append(countBinds(sql));
+
+        if (rows != NO_ROWS) {
+            entry.append(" rows=").append(rows);
+        }
+
+        if (error != null) {
+            entry.append(" error=").append(error.getErrorCode());
+        }
+
+        entry.append(' ').append(sql);
+
+        if (isSlow) {
+            String plan = PLANS.get(sql);
+
+            if (plan == null && (plan = explain(statement, sql)) != null) {
+                PLANS.putIfAbsent(sql, plan);
+            }
+            entry.append("\n  plan: ").append(plan != null ? plan : "unavailable");
+        }
+
+        log.println(entry);
+    }
+
+    /**
+     * Counts the bind parameters of a statement
+     *
+     * @param sql Text of the statement
+     * @return Integer value
+     */
+    private static int countBinds(String sql) {
+        int binds = 0;
+
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') {
+                binds++;
+            }
+        }
+        return binds;
+    }
+
+    /**
+     * Reads the query plan of a statement. The parameters are left null,
+     * since the plan does not depend on their values.
+     *
+     * @param statement Statement whose connection runs the 'EXPLAIN'
+     * @param sql Text of the statement
+     * @return Steps of the plan separated by '; ', null if it could not be read
+     */
+    private static String explain(PreparedStatement statement, String sql) {
+        try {
+            Connection con = statement.getConnection();
+
+            try (PreparedStatement explain = con.prepareStatement(EXPLAIN_SQL + sql)) {
+                int binds = countBinds(sql);
+
+                for (int i = 1; i <= binds; i++) {
+                    explain.setNull(i, Types.NULL);
+                }
+
+                StringBuilder plan = new StringBuilder();
+
+                try (ResultSet rst = explain.executeQuery()) {
+                    while (rst.next()) {
+                        if (plan.length() > 0) {
+                            plan.append("; ");
+                        }
+                        plan.append(rst.getString("detail"));
+                    }
+                }
+                return plan.length() > 0 ? plan.toString() : "none";
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,96 @@
+package banking;
+
+/**
+ * This program lists where the bank can keep its cards: in
+ * SQLite, which every other tool of the bank reads; in memory,
+ * which is fastest and kept only while the program runs; or in
+ * a journal file next to the database file, which is nearly as
+ * fast as memory but keeps the cards between runs.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+enum StorageBackend {
+
+    SQLITE("sqlite"),
+    MEMORY("memory"),
+    FILE("file");
+
+    private final String name;
+
+    /**
+     * Custom constructor
+     *
+     * @param name Name used on the command line
+     */
+    StorageBackend(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the backend with the specified command line name
+     *
+     * @param name Backend name, e.g. 'sqlite'
+     * @return A StorageBackend
+     * @throws IllegalArgumentException If no backend has that name
+     */
+    static StorageBackend fromName(String name) {
+        for (StorageBackend backend : values()) {
+            if (backend.name.equalsIgnoreCase(name)) {
+                return backend;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown storage backend: " + name);
+    }
+
+    /**
+     * Opens the cards kept by this backend
+     *
+     * @param fileName Database file name, e.g. 'card.s3db'
+     * @param profile Storage settings
+     * @param poolSize Maximum number of open connections per shard
+     * @param shardCount Number of shards, only SQLite can have more than one
+     * @return A CardRepository, null if the storage could not be opened
+     * @throws IllegalArgumentException If a backend other than SQLite is given several shards
+     */
+    CardRepository open(String fileName, StorageProfile profile, int poolSize, int shardCount) {
+        return open(fileName, profile, poolSize, shardCount, RetryPolicy.DEFAULT);
+    }
+
+    /**
+     * Opens the cards kept by this backend
+     *
+     * @param fileName Database file name, e.g. 'card.s3db'
+     * @param profile Storage settings
+     * @param poolSize Maximum number of open connections per shard
+     * @param shardCount Number of shards, only SQLite can have more than one
+     * @param policy Retry policy for SQLite writes that find the database busy
+     * @return A CardRepository, null if the storage could not be opened
+     * @throws IllegalArgumentException If a backend other than SQLite is given several shards
+     */
+    CardRepository open(String fileName, StorageProfile profile, int poolSize, int shardCount, RetryPolicy policy) {
+        if (this != SQLITE && shardCount != 1) {
+            throw new IllegalArgumentException("Only SQLite storage can be sharded: " + name);
+        }
+
+        switch (this) {
+            case MEMORY:
+                return new InMemoryCardRepository();
+            case FILE:
+                return FileCardRepository.open(fileName, profile);
+            default:
+                return ShardedStore.open(fileName, profile, poolSize, shardCount, policy);
+        }
+    }
+
+    /**
+     * Gets the name used on the command line
+     *
+     * @return A String
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,107 @@
+package banking;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This program lists the named sets of SQLite settings the
+ * bank can run with. Every profile uses write-ahead logging
+ * so readers do not block the writer; they differ in how
+ * much durability they trade for write speed and memory.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+enum StorageProfile {
+
+    /* Every commit is synced to disk before it is acknowledged */
+    DURABLE("durable", "WAL", "FULL", 0L, -2_000, "DEFAULT", 5_000),
+    /* Commits survive a crash of the program but may be lost on power failure */
+    BALANCED("balanced", "WAL", "NORMAL", 268_435_456L, -16_000, "MEMORY", 5_000),
+    /* Skips syncing altogether, meant for loading large numbers of cards */
+    BULK_LOAD("bulk-load", "WAL", "OFF", 1_073_741_824L, -64_000, "MEMORY", 10_000);
+
+    private final String name;
+    private final String journalMode;
+    private final String synchronous;
+    private final long mmapSize;
+    private final int cacheSize;
+    private final String tempStore;
+    private final int busyTimeout;
+
+    /**
+     * Custom constructor
+     *
+     * @param name Name used on the command line
+     * @param journalMode Value of PRAGMA journal_mode
+     * @param synchronous Value of PRAGMA synchronous
+     * @param mmapSize Value of PRAGMA mmap_size in bytes
+     * @param cacheSize Value of PRAGMA cache_size, negative values are in KiB
+     * @param tempStore Value of PRAGMA temp_store
+     * @param busyTimeout Value of PRAGMA busy_timeout in milliseconds
+     */
+    StorageProfile(String name, String journalMode, String synchronous, long mmapSize,
+                   int cacheSize, String tempStore, int busyTimeout) {
+        this.name = name;
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.mmapSize = mmapSize;
+        this.cacheSize = cacheSize;
+        this.tempStore = tempStore;
+        this.busyTimeout = busyTimeout;
+    }
+
+    /**
+     * Gets the profile with the specified command line name
+     *
+     * @param name Profile name, e.g. 'balanced'
+     * @return A StorageProfile
+     * @throws IllegalArgumentException If no profile has that name
+     */
+    static StorageProfile fromName(String name) {
+        for (StorageProfile profile : values()) {
+            if (profile.name.equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown storage profile: " + name);
+    }
+
+    /**
+     * Applies this profile's settings to a newly opened connection
+     *
+     * @param con Database connection
+     * @throws SQLException If a setting is rejected by the database
+     */
+    void apply(Connection con) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            statement.execute("PRAGMA busy_timeout = " + busyTimeout + ";");
+            statement.execute("PRAGMA journal_mode = " + journalMode + ";");
+            statement.execute("PRAGMA synchronous = " + synchronous + ";");
+            statement.execute("PRAGMA mmap_size = " + mmapSize + ";");
+            statement.execute("PRAGMA cache_size = " + cacheSize + ";");
+            statement.execute("PRAGMA temp_store = " + tempStore + ";");
+        }
+    }
+
+    /**
+     * Gets the busy timeout this profile sets on new connections
+     *
+     * @return Busy timeout in milliseconds
+     */
+    int getBusyTimeout() {
+        return busyTimeout;
+    }
+
+    /**
+     * Gets the name used on the command line
+     *
+     * @return A String
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,96 @@
+package banking;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * This program reads a session's input from a character stream
+ * and writes its screens to another one. Both streams are
+ * buffered, and the output is only flushed when the session
+ * waits for input or ends, so a session costs one write per
+ * screen instead of one per line.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class StreamSessionIO implements SessionIO, AutoCloseable {
+
+    private final Reader in;
+    private final Writer out;
+    private final StringBuilder token = new StringBuilder();
+
+    /**
+     * Custom constructor
+     *
+     * @param in Source of the customer's input
+     * @param out Destination of the session's screens
+     */
+    StreamSessionIO(Reader in, Writer out) {
+        this.in = in instanceof BufferedReader ? in : new BufferedReader(in);
+        this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out);
+    }
+
+    /**
+     * Creates a session I/O on the console
+     *
+     * @return A StreamSessionIO
+     */
+    static StreamSessionIO console() {
+        return new StreamSessionIO(new InputStreamReader(System.in), new OutputStreamWriter(System.out));
+    }
+
+    @Override
+    public String readToken() {
+        flush();
+        token.setLength(0);
+
+        try {
+            int c = in.read();
+
+            while (c != -1 && Character.isWhitespace(c)) {
+                c = in.read();
+            }
+
+            while (c != -1 && !Character.isWhitespace(c)) {
+                token.append((char) c);
+                c = in.read();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return token.length() == 0 ? null : token.toString();
+    }
+
+    @Override
+    public void print(String text) {
+        try {
+            out.write(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes the output. The streams are left open, since they may belong to the console.
+     */
+    @Override
+    public void close() {
+        flush();
+    }
+}
@@ -0,0 +1,99 @@
+package banking;
+
+/**
+ * This program describes the outcome of a transfer. Failed
+ * outcomes are shared constants; a successful one also
+ * carries the sender's balance after the transfer, so the
+ * caller does not have to look it up again.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+final class TransferResult {
+
+    /**
+     * Possible outcomes of a transfer
+     */
+    enum Status {
+        SUCCESS("Success!"),
+        INSUFFICIENT_FUNDS("Not enough money!"),
+        UNKNOWN_TARGET("Such a card does not exist."),
+        SAME_ACCOUNT("You can't transfer money to the same account!"),
+        INVALID_AMOUNT("Amount must be greater than zero!"),
+        BALANCE_OVERFLOW("The amount is too large for the receiving card!"),
+        FAILED("Transfer failed, please try again later.");
+
+        private final String message;
+
+        Status(String message) {
+            this.message = message;
+        }
+
+        /**
+         * Gets the message shown to the user for this outcome
+         *
+         * @return A String
+         */
+        String getMessage() {
+            return message;
+        }
+    }
+
+    static final TransferResult INSUFFICIENT_FUNDS = new TransferResult(Status.INSUFFICIENT_FUNDS, Processor.NO_BALANCE);
+    static final TransferResult UNKNOWN_TARGET = new TransferResult(Status.UNKNOWN_TARGET, Processor.NO_BALANCE);
+    static final TransferResult SAME_ACCOUNT = new TransferResult(Status.SAME_ACCOUNT, Processor.NO_BALANCE);
+    static final TransferResult INVALID_AMOUNT = new TransferResult(Status.INVALID_AMOUNT, Processor.NO_BALANCE);
+    static final TransferResult BALANCE_OVERFLOW = new TransferResult(Status.BALANCE_OVERFLOW, Processor.NO_BALANCE);
+    static final TransferResult FAILED = new TransferResult(Status.FAILED, Processor.NO_BALANCE);
+
+    private final Status status;
+    private final long balance;
+
+    /**
+     * Custom constructor
+     *
+     * @param status Outcome of the transfer
+     * @param balance Sender's balance after the transfer
+     */
+    private TransferResult(Status status, long balance) {
+        this.status = status;
+        this.balance = balance;
+    }
+
+    /**
+     * Creates the result of a successful transfer
+     *
+     * @param balance Sender's balance after the transfer
+     * @return A TransferResult
+     */
+    static TransferResult success(long balance) {
+        return new TransferResult(Status.SUCCESS, balance);
+    }
+
+    /**
+     * Gets the outcome of the transfer
+     *
+     * @return A Status
+     */
+    Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Indicates whether the money was moved
+     *
+     * @return True if transfer was successful, false otherwise
+     */
+    boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+
+    /**
+     * Gets the sender's balance after a successful transfer
+     *
+     * @return Balance, NO_BALANCE if the transfer did not succeed
+     */
+    long getBalance() {
+        return balance;
+    }
+}
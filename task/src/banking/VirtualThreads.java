@@ -0,0 +1,65 @@
+package banking;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This program creates executors on virtual threads when the
+ * running Java version provides them. The program is built for
+ * Java 11, so the virtual thread methods are looked up by name
+ * and a fixed pool of platform threads is used in their absence.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+final class VirtualThreads {
+
+    private static final Method NEW_EXECUTOR = findMethod(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Looks up a public method
+     *
+     * @param type Class that declares the method
+     * @param name Method name
+     * @param parameterTypes Types of the method parameters
+     * @return The method, null if it does not exist
+     */
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Indicates whether the running Java version supports virtual threads
+     *
+     * @return True if virtual threads are available, false otherwise
+     */
+    static boolean isSupported() {
+        return NEW_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread per task
+     *
+     * @param fallbackThreads Number of platform threads used if virtual threads are not available
+     * @return An ExecutorService
+     */
+    static ExecutorService newExecutor(int fallbackThreads) {
+        if (NEW_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return Executors.newFixedThreadPool(fallbackThreads);
+    }
+}
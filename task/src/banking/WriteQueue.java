@@ -0,0 +1,373 @@
+package banking;
+
+import banking.Metrics.Operation;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import static banking.Processor.*;
+
+/**
+ * This program funnels every change to the card table through
+ * a single writer thread. Callers queue a mutation and get a
+ * future back; the writer takes whatever has queued up, applies
+ * it in one transaction with a savepoint per mutation, and
+ * completes the futures once the transaction is committed. The
+ * queue is bounded, so callers wait when the writer falls behind
+ * instead of competing for the database write lock. Reads do not
+ * go through the queue.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+class WriteQueue implements AutoCloseable {
+
+    static final int DEFAULT_CAPACITY = 1024;
+    static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * A change applied by the writer as part of its current transaction
+     *
+     * @param <T> Type of the result
+     */
+    interface Mutation<T> {
+
+        /**
+         * Runs the statements of the change
+         *
+         * @param pooled Connection with an open transaction
+         * @return Result of the change
+         * @throws SQLException If a statement fails
+         */
+        T apply(PooledConnection pooled) throws SQLException;
+    }
+
+    private final ConnectionPool pool;
+    private final RetryPolicy policy;
+    private final BlockingQueue<Request<?>> queue;
+    private final int maxBatchSize;
+    private final Thread writer;
+    private volatile boolean isClosed;
+
+    private final LongAdder mutationCount = new LongAdder();
+    private final LongAdder transactionCount = new LongAdder();
+    private final LongAdder retryCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+
+    /**
+     * Custom constructor
+     *
+     * @param pool Database connection pool
+     */
+    WriteQueue(ConnectionPool pool) {
+        this(pool, RetryPolicy.DEFAULT, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Custom constructor
+     *
+     * @param pool Database connection pool
+     * @param policy Retry policy for transactions that find the database busy
+     * @param capacity Number of mutations that may wait in the queue
+     * @param maxBatchSize Maximum number of mutations applied in one transaction
+     */
+    WriteQueue(ConnectionPool pool, RetryPolicy policy, int capacity, int maxBatchSize) {
+        this.pool = pool;
+        this.policy = policy;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.writer = new Thread(this::run, "card-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a mutation, waiting for room in the queue if it is full
+     *
+     * @param mutation Change to apply
+     * @param isKept Decides from the result whether the change stays in the transaction
+     * @param failedValue Result reported if the change could not be applied
+     * @param <T> Type of the result
+     * @return Future completed with the result once the change is committed or rolled back
+     */
+    <T> CompletableFuture<T> submit(Mutation<T> mutation, Predicate<T> isKept, T failedValue) {
+        Request<T> request = new Request<>(mutation, isKept, failedValue);
+
+        if (isClosed) {
+            request.future.completeExceptionally(new IllegalStateException("Write queue is closed"));
+            return request.future;
+        }
+
+        try {
+            queue.put(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.future.completeExceptionally(e);
+            return request.future;
+        }
+
+        if (isClosed && queue.remove(request)) {
+            request.future.completeExceptionally(new IllegalStateException("Write queue is closed"));
+        }
+
+        return request.future;
+    }
+
+    /**
+     * Queues the insertion of a new card
+     *
+     * @param card Card to be stored
+     * @return Future completed with true if the card was stored, false otherwise
+     */
+    CompletableFuture<Boolean> insertCard(Card card) {
+        return submit(pooled -> {
+            insertCardInfoToTable(pooled, card);
+            return true;
+        }, isStored -> isStored, false);
+    }
+
+    /**
+     * Queues a deposit to the balance of a card
+     *
+     * @param cardNumber Card number
+     * @param amount Amount to be added
+     * @return Future completed with the new balance, empty if the deposit was refused
+     */
+    CompletableFuture<OptionalLong> deposit(long cardNumber, long amount) {
+        return submit(pooled -> depositToBalanceInTable(pooled, cardNumber, amount),
+                OptionalLong::isPresent, OptionalLong.empty());
+    }
+
+    /**
+     * Queues a transfer between two cards
+     *
+     * @param fromNumber Credit card number from which amount will be withdrawn
+     * @param toNumber Credit card number upon which amount will be deposited
+     * @param amount Amount to be transferred
+     * @return Future completed with the outcome of the transfer
+     */
+    CompletableFuture<TransferResult> transfer(long fromNumber, long toNumber, long amount) {
+        return submit(pooled -> transferBalanceInTable(pooled, fromNumber, toNumber, amount),
+                TransferResult::isSuccess, TransferResult.FAILED);
+    }
+
+    /**
+     * Queues the deletion of a card
+     *
+     * @param cardNumber Card number
+     * @return Future completed with true if the card was deleted, false otherwise
+     */
+    CompletableFuture<Boolean> deleteAccount(long cardNumber) {
+        return submit(pooled -> deleteAccountInTable(pooled, cardNumber), isDeleted -> isDeleted, false);
+    }
+
+    /**
+     * Takes batches of queued mutations and applies them until the queue
+     * is closed and empty
+     */
+    private void run() {
+        List<Request<?>> batch = new ArrayList<>(maxBatchSize);
+
+        while (!isClosed || !queue.isEmpty()) {
+            Request<?> first;
+
+            try {
+                first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (first == null) {
+                continue;
+            }
+
+            batch.add(first);
+            queue.drainTo(batch, maxBatchSize - 1);
+
+            try {
+                applyBatch(batch);
+            } catch (RuntimeException e) {
+                /* Keep the writer alive for the next batch and fail the callers still waiting on this one */
+                Metrics.recordError(Operation.WRITE_BATCH, e);
+                failureCount.add(batch.size());
+
+                for (Request<?> request : batch) {
+                    request.future.completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Applies a batch of mutations in one transaction, retrying the whole
+     * batch if the database is busy, and completes their futures
+     *
+     * @param batch Mutations to apply
+     */
+    private void applyBatch(List<Request<?>> batch) {
+        long start = System.nanoTime();
+        boolean isCommitted = false;
+
+        try {
+            policy.execute(pool, pooled -> {
+                for (Request<?> request : batch) {
+                    request.applyTo(pooled);
+                }
+                return null;
+            }, retryCount);
+            isCommitted = true;
+        } catch (SQLException e) {
+            Metrics.recordError(Operation.WRITE_BATCH, e);
+        }
+
+        Metrics.record(Operation.WRITE_BATCH, start);
+        mutationCount.add(batch.size());
+
+        if (isCommitted) {
+            transactionCount.increment();
+        } else {
+            failureCount.add(batch.size());
+        }
+
+        for (Request<?> request : batch) {
+            request.complete(isCommitted);
+        }
+    }
+
+    /**
+     * Gets the number of mutations taken from the queue
+     *
+     * @return A long
+     */
+    long getMutationCount() {
+        return mutationCount.sum();
+    }
+
+    /**
+     * Gets the number of committed transactions
+     *
+     * @return A long
+     */
+    long getTransactionCount() {
+        return transactionCount.sum();
+    }
+
+    /**
+     * Gets the number of mutations waiting in the queue
+     *
+     * @return Integer value
+     */
+    int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Gets a summary of the writer counters
+     *
+     * @return A String
+     */
+    String getStatistics() {
+        long transactions = getTransactionCount();
+
+        return "Mutations: " + getMutationCount()
+                + ", transactions: " + transactions
+                + ", avg batch: " + (transactions == 0 ? 0 : (getMutationCount() - failureCount.sum()) / transactions)
+                + ", retries: " + retryCount.sum()
+                + ", failed: " + failureCount.sum()
+                + ", queued: " + getQueuedCount();
+    }
+
+    /**
+     * Applies the mutations already queued, stops the writer thread and fails
+     * any mutation queued after that
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Request<?> request;
+
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(new IllegalStateException("Write queue is closed"));
+        }
+    }
+
+    /**
+     * A queued mutation with the future of its caller
+     *
+     * @param <T> Type of the result
+     */
+    private static final class Request<T> {
+
+        private final Mutation<T> mutation;
+        private final Predicate<T> isKept;
+        private final T failedValue;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+
+        private Request(Mutation<T> mutation, Predicate<T> isKept, T failedValue) {
+            this.mutation = mutation;
+            this.isKept = isKept;
+            this.failedValue = failedValue;
+        }
+
+        /**
+         * Applies the mutation inside a savepoint, so that a mutation that
+         * fails, throws or is not kept leaves no trace in the transaction
+         * and reports its failed value
+         *
+         * @param pooled Connection with an open transaction
+         * @throws SQLException If the savepoint cannot be handled
+         */
+        private void applyTo(PooledConnection pooled) throws SQLException {
+            setSavepoint(pooled);
+            boolean isResultKept;
+
+            try {
+                result = mutation.apply(pooled);
+                isResultKept = isKept.test(result);
+            } catch (SQLException | RuntimeException e) {
+                /* A taken card number is expected and retried by the issuer under another number */
+                if (!(e instanceof SQLException && isNumberTaken((SQLException) e))) {
+                    Metrics.recordError(Operation.WRITE_BATCH, e);
+                }
+                result = failedValue;
+                rollbackToSavepoint(pooled);
+                return;
+            }
+
+            if (isResultKept) {
+                releaseSavepoint(pooled);
+            } else {
+                rollbackToSavepoint(pooled);
+            }
+        }
+
+        /**
+         * Completes the caller's future
+         *
+         * @param isCommitted Indicates whether the transaction of the mutation was committed
+         */
+        private void complete(boolean isCommitted) {
+            future.complete(isCommitted ? result : failedValue);
+        }
+    }
+}
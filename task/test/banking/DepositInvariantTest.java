@@ -0,0 +1,138 @@
+package banking;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This program checks that concurrent deposits to one hot card
+ * are never lost: after many threads deposit random amounts to
+ * the same card at the same time, its balance must be the
+ * starting balance plus every deposit that succeeded. It runs
+ * against every storage backend, including SQLite split over
+ * two shards.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+public class DepositInvariantTest {
+
+    private static final int THREADS = 16;
+    private static final int DEPOSITS_PER_THREAD = 500;
+    private static final long INITIAL_BALANCE = 1_000;
+    private static final int MAX_AMOUNT = 50;
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("deposit-invariant");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void depositsInMemoryAreAllCounted() throws Exception {
+        try (CardRepository store = new InMemoryCardRepository()) {
+            assertDepositsCounted(store);
+        }
+    }
+
+    @Test
+    public void depositsInJournalFileAreAllCounted() throws Exception {
+        try (CardRepository store = StorageBackend.FILE.open(databaseFile(), StorageProfile.BALANCED, 1, 1)) {
+            assertNotNull("Journal could not be opened", store);
+            assertDepositsCounted(store);
+        }
+    }
+
+    @Test
+    public void depositsInSqliteAreAllCounted() throws Exception {
+        try (CardRepository store = StorageBackend.SQLITE.open(databaseFile(), StorageProfile.BALANCED, 4, 1)) {
+            assertNotNull("Database could not be opened", store);
+            assertDepositsCounted(store);
+        }
+    }
+
+    @Test
+    public void depositsAcrossSqliteShardsAreAllCounted() throws Exception {
+        try (CardRepository store = StorageBackend.SQLITE.open(databaseFile(), StorageProfile.BALANCED, 4, 2)) {
+            assertNotNull("Database could not be opened", store);
+            assertDepositsCounted(store);
+        }
+    }
+
+    /**
+     * Gets the database file of a test, inside its temporary directory
+     *
+     * @return A String
+     */
+    private String databaseFile() {
+        return directory.resolve("card.s3db").toString();
+    }
+
+    /**
+     * Funds one card, runs concurrent deposits to it and checks its balance afterwards
+     *
+     * @param store Card storage
+     * @throws Exception If a depositing thread fails
+     */
+    private static void assertDepositsCounted(CardRepository store) throws Exception {
+        Card card = store.issueCard();
+        assertNotNull("Card could not be issued", card);
+        long hotCard = card.getCardNumber();
+        assertTrue("Card could not be funded", store.deposit(hotCard, INITIAL_BALANCE).join().isPresent());
+
+        LongAdder deposited = new LongAdder();
+        LongAdder succeeded = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>(THREADS);
+
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                for (int i = 0; i < DEPOSITS_PER_THREAD; i++) {
+                    long amount = 1 + random.nextInt(MAX_AMOUNT);
+
+                    if (store.deposit(hotCard, amount).join().isPresent()) {
+                        deposited.add(amount);
+                        succeeded.increment();
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        Card funded = store.findCard(hotCard);
+        assertNotNull("Card disappeared", funded);
+        assertTrue("No deposit succeeded", succeeded.sum() > 0);
+        assertEquals("Deposits were lost or counted twice", INITIAL_BALANCE + deposited.sum(), funded.getBalance());
+    }
+}
@@ -0,0 +1,150 @@
+package banking;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This program checks that concurrent transfers never create
+ * or lose money: after many threads transfer random amounts
+ * between a small set of cards, the total balance must be the
+ * same as before and no balance may be negative. It runs against
+ * every storage backend, including SQLite split over two shards.
+ *
+ * @author Rodrigo Rogel-Perez
+ * @version 2.0
+ */
+public class TransferInvariantTest {
+
+    private static final int CARDS = 20;
+    private static final int THREADS = 16;
+    private static final int TRANSFERS_PER_THREAD = 500;
+    private static final long INITIAL_BALANCE = 1_000;
+    private static final int MAX_AMOUNT = 50;
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("transfer-invariant");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void transfersInMemoryKeepTotalBalance() throws Exception {
+        try (CardRepository store = new InMemoryCardRepository()) {
+            assertTotalBalanceKept(store);
+        }
+    }
+
+    @Test
+    public void transfersInJournalFileKeepTotalBalance() throws Exception {
+        try (CardRepository store = StorageBackend.FILE.open(databaseFile(), StorageProfile.BALANCED, 1, 1)) {
+            assertNotNull("Journal could not be opened", store);
+            assertTotalBalanceKept(store);
+        }
+    }
+
+    @Test
+    public void transfersInSqliteKeepTotalBalance() throws Exception {
+        try (CardRepository store = StorageBackend.SQLITE.open(databaseFile(), StorageProfile.BALANCED, 4, 1)) {
+            assertNotNull("Database could not be opened", store);
+            assertTotalBalanceKept(store);
+        }
+    }
+
+    @Test
+    public void transfersAcrossSqliteShardsKeepTotalBalance() throws Exception {
+        try (CardRepository store = StorageBackend.SQLITE.open(databaseFile(), StorageProfile.BALANCED, 4, 2)) {
+            assertNotNull("Database could not be opened", store);
+            assertTotalBalanceKept(store);
+        }
+    }
+
+    /**
+     * Gets the database file of a test, inside its temporary directory
+     *
+     * @return A String
+     */
+    private String databaseFile() {
+        return directory.resolve("card.s3db").toString();
+    }
+
+    /**
+     * Funds a set of cards, runs concurrent transfers between them and checks
+     * the total balance afterwards
+     *
+     * @param store Card storage
+     * @throws Exception If a transferring thread fails
+     */
+    private static void assertTotalBalanceKept(CardRepository store) throws Exception {
+        long[] cards = new long[CARDS];
+
+        for (int i = 0; i < CARDS; i++) {
+            Card card = store.issueCard();
+            assertNotNull("Card could not be issued", card);
+            cards[i] = card.getCardNumber();
+            assertTrue("Card could not be funded", store.deposit(cards[i], INITIAL_BALANCE).join().isPresent());
+        }
+
+        LongAdder succeeded = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>(THREADS);
+
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    long from = cards[random.nextInt(CARDS)];
+                    long to = cards[random.nextInt(CARDS)];
+                    TransferResult result = store.transfer(from, to, 1 + random.nextInt(MAX_AMOUNT)).join();
+
+                    if (result.isSuccess()) {
+                        succeeded.increment();
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        long total = 0;
+
+        for (long number : cards) {
+            Card card = store.findCard(number);
+            assertNotNull("Card disappeared", card);
+            assertTrue("Balance went negative", card.getBalance() >= 0);
+            total += card.getBalance();
+        }
+
+        assertTrue("No transfer succeeded", succeeded.sum() > 0);
+        assertEquals("Total balance changed", CARDS * INITIAL_BALANCE, total);
+    }
+}